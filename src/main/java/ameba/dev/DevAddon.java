@@ -5,6 +5,7 @@ import ameba.core.Application;
 import ameba.dev.classloading.EnhanceClassEvent;
 import ameba.dev.classloading.EnhancerListener;
 import ameba.dev.classloading.ReloadClassLoader;
+import ameba.dev.classloading.enhancers.Enhancer;
 import ameba.dev.info.MavenProjects;
 import ameba.dev.info.ProjectInfo;
 import ameba.i18n.Messages;
@@ -54,15 +55,26 @@ public class DevAddon extends Addon {
                 )
         );
 
+        // 先加载增强器，保证 ClassCache 的签名包含当前增强器
+        boolean enhancersChanged = Enhancing.loadEnhancers(app.getSrcProperties());
+
         ClassLoader classLoader = ClassUtils.getContextClassLoader();
 
+        ReloadClassLoader created = null;
         if (!(classLoader instanceof ReloadClassLoader)) {
-            classLoader = new ReloadClassLoader(ProjectInfo.root());
+            created = new ReloadClassLoader(ProjectInfo.root());
+            classLoader = created;
             app.setClassLoader(classLoader);
         }
         Thread.currentThread().setContextClassLoader(classLoader);
-
-        Enhancing.loadEnhancers(app.getSrcProperties());
+        // 类池需要从 ReloadClassLoader 的父加载器查找类，在类加载器创建后创建；
+        // 容器重新加载时沿用已有的类加载器和增强器，保留类池中已解析的类
+        if (created != null || enhancersChanged) {
+            Enhancer.resetClassPool();
+        }
+        if (created != null) {
+            created.warmUp();
+        }
 
         HotswapJvmAgent.initialize();
     }
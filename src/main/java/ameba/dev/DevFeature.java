@@ -4,6 +4,8 @@ import ameba.container.event.StartupEvent;
 import ameba.core.Application;
 import ameba.core.event.RequestEvent;
 import ameba.dev.classloading.ReloadClassLoader;
+import ameba.dev.classloading.enhancers.ProfilingEnhancer;
+import ameba.dev.profiling.ProfilingResource;
 import ameba.event.Listener;
 import ameba.feature.AmebaFeature;
 import ameba.i18n.Messages;
@@ -51,6 +53,9 @@ public class DevFeature extends AmebaFeature {
             }
 
             context.register(new LoggingFilter(Logger.getLogger("ameba.dev.logging"), true));
+            if (Enhancing.getEnhancers().stream().anyMatch(enhancer -> enhancer instanceof ProfilingEnhancer)) {
+                context.register(ProfilingResource.class);
+            }
         }
         return true;
     }
@@ -1,10 +1,10 @@
 package ameba.dev;
 
-import ameba.container.event.BeginReloadEvent;
 import ameba.dev.classloading.enhancers.Enhancer;
-import ameba.event.SystemEventBus;
 import ameba.i18n.Messages;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,6 +12,7 @@ import java.lang.reflect.Constructor;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * @author icode
@@ -19,18 +20,47 @@ import java.util.Set;
 public class Enhancing {
 
     private static final Logger logger = LoggerFactory.getLogger(Enhancing.class);
-    private static Set<Enhancer> ENHANCERS = init();
+    private static volatile Set<Enhancer> ENHANCERS = Collections.emptySet();
+    private static String configSignature;
 
-    private static Set<Enhancer> init() {
-        Set<Enhancer> enhancers = Sets.newLinkedHashSet();
-        if (System.getProperty("maven.home") == null) {
-            SystemEventBus.subscribe(BeginReloadEvent.class, event -> ENHANCERS = init());
+    /**
+     * 加载增强器，容器重新加载时如果增强器列表和各增强器自身的配置未改变则沿用已有的增强器实例及其内部缓存
+     *
+     * @param properties 配置
+     * @return 是否重新创建了增强器
+     */
+    public static synchronized boolean loadEnhancers(Map<String, Object> properties) {
+        if (!ENHANCERS.isEmpty() && getConfigSignature(ENHANCERS, properties).equals(configSignature)) {
+            logger.debug(Messages.get("dev.reuse.enhancers", ENHANCERS.size()));
+            return false;
         }
-        return enhancers;
+        ENHANCERS = createEnhancers(properties);
+        configSignature = getConfigSignature(ENHANCERS, properties);
+        return true;
+    }
+
+    /**
+     * 只计算 {@code enhancer.*} 配置和各增强器自身的配置，其他配置改变时不需要重建增强器
+     */
+    private static String getConfigSignature(Set<Enhancer> enhancers, Map<String, Object> properties) {
+        Hasher hasher = Hashing.murmur3_32().newHasher();
+        new TreeMap<>(properties).forEach((key, value) -> {
+            if (key.startsWith("enhancer.")) {
+                hasher.putUnencodedChars(key)
+                        .putChar('=')
+                        .putUnencodedChars(String.valueOf(value))
+                        .putChar('\n');
+            }
+        });
+        for (Enhancer enhancer : enhancers) {
+            hasher.putUnencodedChars(enhancer.getSignature(properties)).putChar('\n');
+        }
+        return hasher.hash().toString();
     }
 
     @SuppressWarnings("unchecked")
-    public static void loadEnhancers(Map<String, Object> properties) {
+    private static Set<Enhancer> createEnhancers(Map<String, Object> properties) {
+        Set<Enhancer> enhancers = Sets.newLinkedHashSet();
         properties.keySet().stream().filter(key -> key.startsWith("enhancer.")).forEachOrdered(key -> {
             String value = (String) properties.get(key);
 
@@ -40,7 +70,7 @@ public class Enhancing {
                 if (Enhancer.class.isAssignableFrom(clazz)) {
                     try {
                         Constructor<Enhancer> enhancerConstructor = clazz.<Enhancer>getConstructor(Map.class);
-                        ENHANCERS.add(enhancerConstructor.newInstance(properties));
+                        enhancers.add(enhancerConstructor.newInstance(properties));
                     } catch (NoSuchMethodException e) {
                         logger.error(
                                 Messages.get("dev.enhancer.constructor.error",
@@ -52,6 +82,7 @@ public class Enhancing {
                 logger.error(Messages.get("dev.loading.enhancer.error"), e);
             }
         });
+        return enhancers;
     }
 
     public static Set<Enhancer> getEnhancers() {
@@ -4,14 +4,17 @@ import ameba.container.event.StartupEvent;
 import ameba.core.Addon;
 import ameba.core.Application;
 import ameba.core.event.RequestEvent;
+import ameba.dev.classloading.ClassBytes;
 import ameba.dev.classloading.ClassCache;
 import ameba.dev.classloading.ClassDescription;
+import ameba.dev.classloading.ClassFingerprint;
 import ameba.dev.classloading.EnhanceClassEvent;
 import ameba.dev.classloading.ReloadClassLoader;
 import ameba.dev.compiler.CompileErrorException;
 import ameba.dev.compiler.Config;
 import ameba.dev.compiler.JavaCompiler;
 import ameba.dev.compiler.JavaSource;
+import ameba.dev.compiler.SourceIndex;
 import ameba.dev.info.ProjectInfo;
 import ameba.event.Listener;
 import ameba.event.SystemEventBus;
@@ -53,6 +56,11 @@ public class ReloadRequestListener implements Listener<RequestEvent> {
 
     private static final Logger logger = LoggerFactory.getLogger(ReloadRequestListener.class);
     private static final AtomicBoolean RELOADING = new AtomicBoolean(false);
+    /**
+     * 只有调试信息变化的类的处理方式：默认重新增强并重新定义，但不会因此重新加载容器；
+     * {@code -Dameba.dev.debugChanges=skip} 时沿用已加载的类，不做任何处理
+     */
+    private static final boolean SKIP_DEBUG_CHANGES = "skip".equals(System.getProperty("ameba.dev.debugChanges"));
     private final ThreadLocal<Reload> reloadThreadLocal = new ThreadLocal<>();
     @Inject
     private Application app;
@@ -140,6 +148,8 @@ public class ReloadRequestListener implements Listener<RequestEvent> {
 
         Reload reload = new Reload();
         final List<JavaSource> javaFiles = Lists.newArrayList();
+        final SourceIndex sourceIndex = SourceIndex.get(classLoader.getClassCache().getProjectInfo());
+        final Set<String> sourceClasses = Sets.newHashSet();
         ProjectInfo.root().forEach(projectInfo -> {
             final Path sourceDir = projectInfo.getSourceDirectory();
             if (!Files.exists(sourceDir)) return true;
@@ -152,6 +162,8 @@ public class ReloadRequestListener implements Listener<RequestEvent> {
                         if (file.toString().endsWith(".java")) {
                             String path = sourceDir.relativize(file).toString();
                             String className = path.substring(0, path.length() - 5).replace(File.separator, ".");
+                            sourceIndex.add(projectInfo, className, file.toFile());
+                            sourceClasses.add(className);
                             ClassDescription desc = classLoader.getClassCache().get(className);
                             if (desc.getLastModified() == null
                                     || attrs.lastModifiedTime().toMillis() > desc.getLastModified()) {
@@ -171,9 +183,11 @@ public class ReloadRequestListener implements Listener<RequestEvent> {
             }
             return true;
         });
+        sourceIndex.retain(sourceClasses);
 
         if (javaFiles.size() > 0) {
             final Set<ClassDefinition> classes = Sets.newHashSet();
+            final Set<ClassDefinition> debugClasses = Sets.newHashSet();
 
             JavaCompiler compiler = JavaCompiler.create(classLoader, new Config());
             ClassCache classCache = classLoader.getClassCache();
@@ -184,10 +198,14 @@ public class ReloadRequestListener implements Listener<RequestEvent> {
                 for (JavaSource source : compileClasses) {
                     ClassDescription desc = classCache.get(source.getClassName());
                     if (desc != null) {
-                        String signature = desc.signature;
+                        String signature = desc.getSignature();
+                        String fingerprint = desc.getFingerprint();
                         byte[] bytecode = source.getByteCode();
-                        desc.classByteCode = bytecode;
-                        File cacheFile = desc.getEnhancedClassFile();
+                        // 只有行号等调试信息变化
+                        boolean debugOnly = fingerprint != null
+                                && fingerprint.equals(ClassFingerprint.semantic(bytecode));
+                        byte[] enhanced = debugOnly && SKIP_DEBUG_CHANGES ? desc.getEnhancedByteCode() : null;
+                        desc.setClassByteCode(bytecode);
                         desc.refresh();
                         //  检测新类
 //                        if (!reload.needReload && !classCache.keys().contains(source.getClassName())) {
@@ -199,12 +217,26 @@ public class ReloadRequestListener implements Listener<RequestEvent> {
                             reload.needReload = true;//新class，重新加载容器
                         }
 
-                        if (!desc.signature.equals(signature)) {
-                            FileUtils.deleteQuietly(cacheFile);
-                            Addon.publishEvent(new EnhanceClassEvent(desc));
+                        if (desc.getSignature().equals(signature)) continue;
+                        if (enhanced != null) {
+                            // 沿用已加载的增强结果，不重新增强也不重新定义；
+                            // 按新签名写入缓存并记录新的指纹，下次只有调试信息变化时仍可跳过
+                            desc.setEnhancedByteCode(enhanced);
                             classCache.writeCache(desc);
-                            bytecode = desc.enhancedByteCode == null ? desc.getClassByteCode() : desc.enhancedByteCode;
-                            classes.add(new ClassDefinition(classLoader.loadClass(source.getClassName()), bytecode));
+                            logger.debug("only debug info of {} changed, skip redefine", desc.className);
+                            continue;
+                        }
+                        if (!classCache.loadShared(desc)) {
+                            Addon.publishEvent(new EnhanceClassEvent(desc));
+                        }
+                        classCache.writeCache(desc);
+                        bytecode = ClassBytes.get(desc);
+                        ClassDefinition definition = new ClassDefinition(
+                                classLoader.loadClass(source.getClassName()), bytecode);
+                        if (debugOnly) {
+                            debugClasses.add(definition);
+                        } else {
+                            classes.add(definition);
                         }
                     }
                 }
@@ -212,6 +244,8 @@ public class ReloadRequestListener implements Listener<RequestEvent> {
                 throw e;
             } catch (Exception e) {
                 throw new AmebaException(e);
+            } finally {
+                classCache.flush();
             }
 
             if (classes.size() > 0) {
@@ -228,6 +262,15 @@ public class ReloadRequestListener implements Listener<RequestEvent> {
 
                 reload.classes = classes;
             }
+
+            if (debugClasses.size() > 0 && !reload.needReload) {
+                try {
+                    classLoader.detectChanges(debugClasses);
+                } catch (UnsupportedOperationException | UnmodifiableClassException | ClassNotFoundException e) {
+                    // 语义没有变化，重新定义失败时继续使用已加载的类
+                    logger.debug("redefine debug info changed classes failed", e);
+                }
+            }
         }
 
         classLoader.getClassCache().values()
@@ -0,0 +1,99 @@
+package ameba.dev.accessor;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 没有生成访问器时基于反射的属性访问器，属性为有公开 getter 的 JavaBean 属性
+ *
+ * @param <T> bean type
+ * @author icode
+ */
+final class BeanPropertyAccessor<T> implements PropertyAccessor<T> {
+    private final String[] names;
+    private final Class<?>[] types;
+    private final Method[] getters;
+    private final Method[] setters;
+    private final Map<String, Integer> index = Maps.newHashMap();
+
+    BeanPropertyAccessor(Class<T> type) {
+        BeanInfo info;
+        try {
+            info = Introspector.getBeanInfo(type, Object.class);
+        } catch (IntrospectionException e) {
+            throw new IllegalArgumentException("Can not introspect " + type.getName(), e);
+        }
+        List<PropertyDescriptor> properties = Lists.newArrayList();
+        for (PropertyDescriptor property : info.getPropertyDescriptors()) {
+            if (property.getReadMethod() != null) properties.add(property);
+        }
+        int size = properties.size();
+        names = new String[size];
+        types = new Class<?>[size];
+        getters = new Method[size];
+        setters = new Method[size];
+        for (int i = 0; i < size; i++) {
+            PropertyDescriptor property = properties.get(i);
+            names[i] = property.getName();
+            types[i] = property.getPropertyType();
+            getters[i] = property.getReadMethod();
+            setters[i] = property.getWriteMethod();
+            index.put(names[i], i);
+        }
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    public int indexOf(String name) {
+        Integer i = index.get(name);
+        return i == null ? -1 : i;
+    }
+
+    @Override
+    public String getPropertyName(int index) {
+        return names[index];
+    }
+
+    @Override
+    public Class<?> getPropertyType(int index) {
+        return types[index];
+    }
+
+    @Override
+    public Object get(T bean, int index) {
+        return invoke(getters[index], bean);
+    }
+
+    @Override
+    public void set(T bean, int index, Object value) {
+        Method setter = setters[index];
+        if (setter == null) throw new UnsupportedOperationException(names[index]);
+        invoke(setter, bean, value);
+    }
+
+    private Object invoke(Method method, Object bean, Object... args) {
+        try {
+            return method.invoke(bean, args);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package ameba.dev.accessor;
+
+/**
+ * 属性访问器，通过属性下标读写
+ * <p>
+ * 开发模式下由 {@code PropertyAccessorEnhancer} 为模型生成，不使用反射；
+ * 没有生成时 {@link PropertyAccessors#of(Class)} 回退到基于反射的实现
+ *
+ * @param <T> model type
+ * @author icode
+ */
+public interface PropertyAccessor<T> {
+
+    /**
+     * @return 属性个数
+     */
+    int size();
+
+    /**
+     * @param name 属性名
+     * @return 属性下标，不存在时返回 -1
+     */
+    int indexOf(String name);
+
+    String getPropertyName(int index);
+
+    Class<?> getPropertyType(int index);
+
+    Object get(T bean, int index);
+
+    void set(T bean, int index, Object value);
+
+    default Object get(T bean, String name) {
+        int index = indexOf(name);
+        if (index < 0) throw new IllegalArgumentException("No such property: " + name);
+        return get(bean, index);
+    }
+
+    default void set(T bean, String name, Object value) {
+        int index = indexOf(name);
+        if (index < 0) throw new IllegalArgumentException("No such property: " + name);
+        set(bean, index, value);
+    }
+}
@@ -0,0 +1,116 @@
+package ameba.dev.accessor;
+
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+/**
+ * 模型属性访问器注册表
+ * <p>
+ * 访问器与模型在同一个类加载器中，以 {@link ClassValue} 保存，模型类重新加载后自动失效；
+ * 序列化和表单绑定通过 {@link #toMap(Object)}、{@link #bind(Object, Map)} 读写属性，
+ * 没有生成访问器的类回退到反射
+ *
+ * @author icode
+ */
+public class PropertyAccessors {
+    public static final String ACCESSOR_SUFFIX = "$$PropertyAccessor";
+    private static final Logger logger = LoggerFactory.getLogger(PropertyAccessors.class);
+    private static final ClassValue<PropertyAccessor<?>> ACCESSORS = new ClassValue<PropertyAccessor<?>>() {
+        @Override
+        protected PropertyAccessor<?> computeValue(Class<?> type) {
+            try {
+                Class<?> accessorClass = Class.forName(getAccessorClassName(type.getName()), true,
+                        type.getClassLoader());
+                if (PropertyAccessor.class.isAssignableFrom(accessorClass)) {
+                    return (PropertyAccessor<?>) accessorClass.getDeclaredConstructor().newInstance();
+                }
+            } catch (ClassNotFoundException e) {
+                // ClassValue 对每个类只计算一次，回退只记录一次
+                logger.debug("No property accessor generated for {}, fall back to reflection", type.getName());
+            } catch (ReflectiveOperationException | LinkageError e) {
+                logger.warn("Can not create property accessor for " + type.getName(), e);
+            }
+            return null;
+        }
+    };
+    private static final ClassValue<PropertyAccessor<?>> BEAN_ACCESSORS = new ClassValue<PropertyAccessor<?>>() {
+        @Override
+        protected PropertyAccessor<?> computeValue(Class<?> type) {
+            PropertyAccessor<?> accessor = ACCESSORS.get(type);
+            return accessor != null ? accessor : new BeanPropertyAccessor<>(type);
+        }
+    };
+
+    private PropertyAccessors() {
+    }
+
+    public static String getAccessorClassName(String className) {
+        return className + ACCESSOR_SUFFIX;
+    }
+
+    /**
+     * 获取模型的属性访问器
+     *
+     * @param type model class
+     * @param <T>  model type
+     * @return 属性访问器，没有生成时返回 null，调用方应回退到反射
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> PropertyAccessor<T> get(Class<T> type) {
+        if (type == null) return null;
+        return (PropertyAccessor<T>) ACCESSORS.get(type);
+    }
+
+    public static boolean has(Class<?> type) {
+        return get(type) != null;
+    }
+
+    /**
+     * 获取属性访问器，没有生成时使用基于反射的访问器
+     *
+     * @param type bean class
+     * @param <T>  bean type
+     * @return 属性访问器
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> PropertyAccessor<T> of(Class<T> type) {
+        return (PropertyAccessor<T>) BEAN_ACCESSORS.get(type);
+    }
+
+    /**
+     * 读取所有属性，按属性顺序
+     *
+     * @param bean bean
+     * @return 属性名到属性值
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> toMap(Object bean) {
+        PropertyAccessor<Object> accessor = (PropertyAccessor<Object>) of(bean.getClass());
+        Map<String, Object> values = Maps.newLinkedHashMap();
+        for (int i = 0; i < accessor.size(); i++) {
+            values.put(accessor.getPropertyName(i), accessor.get(bean, i));
+        }
+        return values;
+    }
+
+    /**
+     * 把值写入同名属性，忽略不存在的属性
+     *
+     * @param bean   bean
+     * @param values 属性名到属性值
+     * @param <T>    bean type
+     * @return bean
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T bind(T bean, Map<String, ?> values) {
+        PropertyAccessor<Object> accessor = (PropertyAccessor<Object>) of(bean.getClass());
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            int index = accessor.indexOf(entry.getKey());
+            if (index >= 0) accessor.set(bean, index, entry.getValue());
+        }
+        return bean;
+    }
+}
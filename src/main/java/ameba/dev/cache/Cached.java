@@ -0,0 +1,32 @@
+package ameba.dev.cache;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存方法的返回值，以参数为键，实例方法按实例分别缓存
+ * <p>
+ * 开发模式下由 {@code ameba.dev.classloading.enhancers.CachedEnhancer} 增强。只有一个基本类型参数或没有参数的方法
+ * 使用 long 作为键，查询时不创建对象；其他方法的键在查询时创建。
+ * 注解及运行时的 {@link MethodCache} 打包在 {@code runtime} 分类的 jar 中，应用只需依赖该 jar
+ *
+ * @author icode
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Cached {
+    /**
+     * @return 最多缓存的条目数，超出时按近似 LRU 淘汰
+     */
+    int maxSize() default 1024;
+
+    /**
+     * @return 写入后的有效时间，小于等于 0 时不过期
+     */
+    long ttl() default 0;
+
+    TimeUnit unit() default TimeUnit.MILLISECONDS;
+}
@@ -0,0 +1,301 @@
+package ameba.dev.cache;
+
+import ameba.exception.UnexpectedException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link Cached} 方法的缓存
+ * <p>
+ * 对象键使用 Guava Cache；long 键使用开放寻址表，随机采样淘汰最久未访问的条目，查询时不分配对象。
+ * 实例方法按实例使用 {@link #of(Object)} 得到的子缓存，实例只被弱引用，回收后子缓存一起释放；
+ * 子缓存的条目数上限单独计算，统计计入所属的方法缓存
+ *
+ * @author icode
+ */
+public class MethodCache {
+    private static final Object NULL = new Object();
+    private static final int SAMPLES = 8;
+
+    private final String name;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Cache<Object, Object> cache;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private volatile Cache<Object, MethodCache> instances;
+
+    private long[] keys;
+    private Object[] values;
+    private long[] access;
+    private long[] expires;
+    private int mask;
+    private int size;
+    private long tick;
+    private int seed = 0x9E3779B9;
+
+    public MethodCache(String name, int maxSize, long ttl, TimeUnit unit) {
+        this(name, Math.max(1, maxSize), ttl > 0 ? unit.toNanos(ttl) : 0,
+                new LongAdder(), new LongAdder(), new LongAdder());
+    }
+
+    private MethodCache(String name, int maxSize, long ttlNanos,
+                        LongAdder hits, LongAdder misses, LongAdder evictions) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlNanos;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(maxSize);
+        if (ttlNanos > 0) builder.expireAfterWrite(ttlNanos, TimeUnit.NANOSECONDS);
+        this.cache = builder.removalListener(notification -> {
+            if (notification.wasEvicted()) evictions.increment();
+        }).build();
+    }
+
+    /**
+     * 还原 {@link #get} 或 {@link #put} 返回的缓存值
+     *
+     * @param stored cached value
+     * @return method result
+     */
+    public static Object value(Object stored) {
+        return stored == NULL ? null : stored;
+    }
+
+    public static Object key(Object[] args) {
+        if (args.length == 1 && args[0] != null && !args[0].getClass().isArray()) {
+            return args[0];
+        }
+        return new Key(null, args);
+    }
+
+    /**
+     * 旧版本增强的实例方法使用，实例会被键强引用，新增强的类改用 {@link #of(Object)}
+     *
+     * @param self instance
+     * @param args arguments
+     * @return key
+     */
+    @Deprecated
+    public static Object key(Object self, Object[] args) {
+        return new Key(self, args);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * 实例方法的子缓存，实例按引用比较且只被弱引用
+     *
+     * @param self instance
+     * @return method cache of the instance
+     */
+    public MethodCache of(Object self) {
+        Cache<Object, MethodCache> caches = instances;
+        if (caches == null) {
+            synchronized (this) {
+                caches = instances;
+                if (caches == null) {
+                    caches = CacheBuilder.newBuilder().weakKeys().build();
+                    instances = caches;
+                }
+            }
+        }
+        MethodCache cache = caches.getIfPresent(self);
+        if (cache != null) return cache;
+        try {
+            return caches.get(self, () -> new MethodCache(name, maxSize, ttlNanos, hits, misses, evictions));
+        } catch (ExecutionException e) {
+            throw new UnexpectedException(e.getCause());
+        }
+    }
+
+    /**
+     * @param key key
+     * @return 缓存值，未命中时返回 null
+     */
+    public Object get(Object key) {
+        Object value = cache.getIfPresent(key);
+        (value == null ? misses : hits).increment();
+        return value;
+    }
+
+    public Object put(Object key, Object value) {
+        Object stored = value == null ? NULL : value;
+        cache.put(key, stored);
+        return stored;
+    }
+
+    public Object get(long key) {
+        Object value;
+        synchronized (this) {
+            value = find(key);
+        }
+        (value == null ? misses : hits).increment();
+        return value;
+    }
+
+    public synchronized Object put(long key, Object value) {
+        Object stored = value == null ? NULL : value;
+        if (values == null) allocate();
+        int i = hash(key) & mask;
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                store(i, key, stored);
+                return stored;
+            }
+        }
+        if (size >= maxSize) {
+            evict();
+            i = hash(key) & mask;
+            while (values[i] != null) i = (i + 1) & mask;
+        }
+        store(i, key, stored);
+        size++;
+        return stored;
+    }
+
+    public synchronized void clear() {
+        cache.invalidateAll();
+        if (values != null) Arrays.fill(values, null);
+        size = 0;
+        if (instances != null) instances.invalidateAll();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long size() {
+        long total;
+        synchronized (this) {
+            total = size + cache.size();
+        }
+        Cache<Object, MethodCache> caches = instances;
+        if (caches != null) {
+            for (MethodCache instance : caches.asMap().values()) {
+                total += instance.size();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 只有使用 long 键时才创建开放寻址表，容量为 maxSize 两倍以上的 2 的幂
+     */
+    private void allocate() {
+        int capacity = Integer.highestOneBit(maxSize * 2 - 1) << 1;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        access = new long[capacity];
+        expires = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private Object find(long key) {
+        if (values == null) return null;
+        for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                if (expires[i] != 0 && expires[i] - System.nanoTime() <= 0) {
+                    removeAt(i);
+                    return null;
+                }
+                access[i] = ++tick;
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    private void store(int i, long key, Object value) {
+        keys[i] = key;
+        values[i] = value;
+        access[i] = ++tick;
+        expires[i] = ttlNanos > 0 ? System.nanoTime() + ttlNanos : 0;
+    }
+
+    /**
+     * 从随机位置开始取若干个条目，淘汰其中最久未访问的
+     */
+    private void evict() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        int victim = -1;
+        for (int i = seed & mask, found = 0; found < SAMPLES; i = (i + 1) & mask) {
+            if (values[i] == null) continue;
+            if (victim < 0 || access[i] < access[victim]) victim = i;
+            found++;
+            if (found >= size) break;
+        }
+        removeAt(victim);
+        evictions.increment();
+    }
+
+    /**
+     * 删除后将同一探测链上的条目前移，不使用墓碑
+     */
+    private void removeAt(int i) {
+        values[i] = null;
+        size--;
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+            if (movable) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                access[i] = access[j];
+                expires[i] = expires[j];
+                values[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    private static class Key {
+        private final Object self;
+        private final Object[] args;
+        private final int hash;
+
+        Key(Object self, Object[] args) {
+            this.self = self;
+            this.args = args;
+            this.hash = 31 * System.identityHashCode(self) + Arrays.deepHashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return self == other.self && hash == other.hash && Arrays.deepEquals(args, other.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package ameba.dev.cache;
+
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 所有 {@link Cached} 方法缓存的注册表，可以查看命中率或清空缓存
+ *
+ * @author icode
+ */
+public class MethodCaches {
+    private static final Map<String, MethodCache> CACHES = Maps.newConcurrentMap();
+
+    private MethodCaches() {
+    }
+
+    /**
+     * 由增强后的类在初始化时调用，类重新加载后替换原来的缓存
+     *
+     * @param name    method signature
+     * @param maxSize max size
+     * @param ttl     time to live
+     * @param unit    ttl unit name
+     * @return method cache
+     */
+    public static MethodCache register(String name, int maxSize, long ttl, String unit) {
+        MethodCache cache = new MethodCache(name, maxSize, ttl, TimeUnit.valueOf(unit));
+        CACHES.put(name, cache);
+        return cache;
+    }
+
+    public static MethodCache get(String name) {
+        return CACHES.get(name);
+    }
+
+    public static Map<String, MethodCache> getCaches() {
+        return Collections.unmodifiableMap(CACHES);
+    }
+
+    public static void clear() {
+        CACHES.values().forEach(MethodCache::clear);
+    }
+}
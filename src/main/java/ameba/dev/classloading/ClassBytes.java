@@ -0,0 +1,74 @@
+package ameba.dev.classloading;
+
+import ameba.dev.classloading.protocol.amebaclass.Handler;
+import ameba.dev.compiler.JavaSource;
+import ameba.exception.UnexpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLStreamHandler;
+
+/**
+ * 内存中的类字节码提供者
+ * <p>
+ * 由 {@link ClassCache} 支持，javassist、Ebean 与 Quasar 通过 {@code amebaclass:} URL 或直接的字节 API
+ * 读取增强后的字节码，不再重复读取 enhanced-cache 文件。
+ * URL 直接绑定协议处理器实例，不修改全局的 {@code java.protocol.handler.pkgs}，转为字符串后由 {@link #toURL(String)} 重新解析
+ *
+ * @author icode
+ */
+public class ClassBytes {
+    public static final String PROTOCOL = "amebaclass";
+    private static final URLStreamHandler HANDLER = new Handler();
+
+    private ClassBytes() {
+    }
+
+    /**
+     * 已缓存的类字节码，优先返回增强后的字节码
+     *
+     * @param desc class description
+     * @return byte code or null
+     */
+    public static byte[] get(ClassDescription desc) {
+        if (desc == null) return null;
+        byte[] bytes = desc.getEnhancedByteCode();
+        return bytes != null ? bytes : desc.getClassByteCode();
+    }
+
+    public static byte[] get(String className) {
+        return get(ClassCache.lookup(className));
+    }
+
+    public static InputStream getInputStream(ClassDescription desc) {
+        byte[] bytes = get(desc);
+        return bytes == null ? null : new ByteArrayInputStream(bytes);
+    }
+
+    /**
+     * 指向内存字节码的 URL
+     *
+     * @param desc class description
+     * @return url or null when no byte code in memory
+     */
+    public static URL getURL(ClassDescription desc) {
+        if (get(desc) == null) return null;
+        return toURL(PROTOCOL + ":/" + JavaSource.getClassFileName(desc.className));
+    }
+
+    /**
+     * 解析 {@code amebaclass:} URL，如 {@link URL#toString()} 的结果
+     *
+     * @param spec url string
+     * @return url
+     */
+    public static URL toURL(String spec) {
+        try {
+            return new URL(null, spec, HANDLER);
+        } catch (MalformedURLException e) {
+            throw new UnexpectedException(e);
+        }
+    }
+}
@@ -3,21 +3,26 @@ package ameba.dev.classloading;
 import ameba.dev.Enhancing;
 import ameba.dev.classloading.enhancers.Enhancer;
 import ameba.dev.compiler.JavaSource;
+import ameba.dev.compiler.SourceIndex;
 import ameba.dev.info.ProjectInfo;
 import ameba.exception.UnexpectedException;
 import com.google.common.collect.Maps;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author icode
@@ -25,6 +30,24 @@ import java.util.Set;
 public class ClassCache {
 
     private static final Map<String, ClassDescription> classCache = Maps.newConcurrentMap();
+    /**
+     * 字节码常驻内存的预算，超出后已写入缓存包的增强字节码改为软引用
+     */
+    private static final long MEMORY_BUDGET = Long.getLong("ameba.dev.classCache.budget", 64L * 1024 * 1024);
+    /**
+     * 增强缓存包的大小上限，超出后在后台整理，整理时超出部分从最早写入的记录开始丢弃
+     */
+    private static final long MAX_CACHE_SIZE = Long.getLong("ameba.dev.enhancedCache.maxSize", 256L * 1024 * 1024);
+    /**
+     * 与类一一对应的旁路文件目录，类不存在后一起删除
+     */
+    private static final String[] SIDECAR_DIRS = {"meta", "quasar"};
+    /**
+     * 增强时生成的类名为所属类名加此分隔符开头的后缀
+     */
+    private static final String GENERATED_SEPARATOR = "$$";
+    private static final AtomicBoolean GC_STARTED = new AtomicBoolean();
+    private static final AtomicBoolean COMPACTING = new AtomicBoolean();
     private static Logger logger = LoggerFactory.getLogger(ClassCache.class);
     private ProjectInfo projectInfo;
 
@@ -33,73 +56,399 @@ public class ClassCache {
     public ClassCache(ProjectInfo projectInfo) {
         this.projectInfo = projectInfo;
         this.hashSignature = getHashSignature();
+        ClassIndex.open(projectInfo);
+        if (!"false".equals(System.getProperty("ameba.dev.enhancedCache.gc"))
+                && GC_STARTED.compareAndSet(false, true)) {
+            startDaemon(this::collectGarbage, "ameba-enhanced-cache-gc");
+        }
+    }
+
+    private static void startDaemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
     }
 
+    /**
+     * 所有增强器的签名，增强器、版本或影响增强结果的配置改变后本地和共享缓存都会失效
+     *
+     * @return signature
+     */
     public static String getHashSignature() {
         Hasher hasher = Hashing.murmur3_32().newHasher();
 
         for (Enhancer enhancer : Enhancing.getEnhancers()) {
-            hasher.putUnencodedChars(enhancer.getClass().getName())
-                    .putChar('.')
-                    .putUnencodedChars(enhancer.getVersion());
+            hasher.putUnencodedChars(enhancer.getSignature(enhancer.getProperties()))
+                    .putChar('.');
         }
         return hasher.hash().toString();
     }
 
+    /**
+     * 只查找已加载的类描述，不读取文件
+     *
+     * @param name class name
+     * @return class description or null
+     */
+    public static ClassDescription lookup(String name) {
+        return name == null ? null : classCache.get(name);
+    }
+
     public ClassDescription get(String name) {
         if (name.startsWith("java.")) return null;
         ClassDescription desc = classCache.get(name);
-        if (desc == null) {
-            JavaSource.FoundInfo foundInfo = JavaSource.findInfoByJavaFile(name, projectInfo);
-            if (foundInfo == null) return null;
-            File classFile = JavaSource.getExistsClassFile(name);
-            if (classFile == null) {
-                classFile = foundInfo.getClassFile();
+        if (desc != null) return desc;
+        // 生成的类与所属类同一个源文件，先按生成的类查找，没有对应的 class 文件时不再当作普通类
+        if (getOwnerName(name) != null) {
+            desc = getGenerated(name);
+            if (desc != null || JavaSource.getExistsClassFile(name) == null) return desc;
+        }
+        JavaSource.FoundInfo foundInfo = SourceIndex.get(projectInfo).find(name);
+        if (foundInfo == null) return null;
+        // 在 map 之外读取文件，同时构建时以先放入的为准
+        desc = create(name, foundInfo);
+        ClassDescription exists = classCache.putIfAbsent(name, desc);
+        if (exists != null) {
+            desc.discard();
+            return exists;
+        }
+        return desc;
+    }
+
+    /**
+     * 保存增强时为类生成的新类（如属性访问器），不写入 class 文件；
+     * 按所属类的签名写入缓存包，所属类重新增强或删除时一起删除
+     *
+     * @param owner    所属类的草稿
+     * @param name     生成的类名，以所属类名加 $$ 开头
+     * @param bytecode 字节码
+     */
+    public static void putGenerated(ClassDraft owner, String name, byte[] bytecode) {
+        putGenerated(owner.className, owner.getSignature(), owner.projectInfo, name, bytecode);
+    }
+
+    private static void putGenerated(String owner, String ownerSignature, ProjectInfo projectInfo,
+                                     String name, byte[] bytecode) {
+        if (!name.startsWith(owner.concat(GENERATED_SEPARATOR))) {
+            throw new IllegalArgumentException(name + " is not generated for " + owner);
+        }
+        String signature = getGeneratedSignature(ownerSignature, name);
+        String fingerprint = ClassFingerprint.semantic(bytecode);
+        ClassDescription desc = new GeneratedClassDesc(name, projectInfo);
+        desc.reset(signature, null, System.currentTimeMillis());
+        desc.setFingerprint(fingerprint);
+        desc.setEnhancedByteCode(bytecode);
+        ClassDescription old = classCache.put(name, desc);
+        if (old != null) old.discard();
+        if (projectInfo != null) {
+            EnhancedCachePack.get(projectInfo).put(name, signature, fingerprint, bytecode);
+        }
+        try {
+            ClassHierarchy.update(ClassHeader.read(bytecode));
+        } catch (IOException e) {
+            logger.debug("read class header {} error", name, e);
+        }
+    }
+
+    private static String getGeneratedSignature(String ownerSignature, String name) {
+        if (ownerSignature == null) return null;
+        return Hashing.murmur3_32().newHasher()
+                .putUnencodedChars(ownerSignature)
+                .putChar('.')
+                .putUnencodedChars(name)
+                .hash().toString();
+    }
+
+    private static String getOwnerName(String name) {
+        int index = name.indexOf(GENERATED_SEPARATOR);
+        return index > 0 ? name.substring(0, index) : null;
+    }
+
+    /**
+     * 所属类当前版本生成的类
+     */
+    private static Map<String, byte[]> getGeneratedByteCodes(String owner, String ownerSignature) {
+        Map<String, byte[]> generated = Maps.newTreeMap();
+        String prefix = owner.concat(GENERATED_SEPARATOR);
+        for (ClassDescription desc : classCache.values()) {
+            if (!desc.className.startsWith(prefix)
+                    || !getGeneratedSignature(ownerSignature, desc.className).equals(desc.getSignature())) {
+                continue;
             }
-            desc = new AppClassDesc();
-            desc.className = name;
-            if (classFile.isFile() && classFile.exists()) {
-                try {
-                    desc.classByteCode = Files.readAllBytes(classFile.toPath());
-                    desc.lastModified = classFile.lastModified();
-                } catch (IOException e) {
-                    throw new UnexpectedException("Read java source file error", e);
-                }
+            byte[] bytecode = desc.getEnhancedByteCode();
+            if (bytecode != null) generated.put(desc.className, bytecode);
+        }
+        return generated;
+    }
+
+    /**
+     * 删除所属类生成的类
+     */
+    private static void removeGenerated(String owner) {
+        String prefix = owner.concat(GENERATED_SEPARATOR);
+        for (String name : classCache.keySet()) {
+            if (name.startsWith(prefix)) {
+                ClassDescription desc = classCache.get(name);
+                if (desc != null) desc.destroy();
             }
-            desc.projectInfo = foundInfo.getProjectInfo();
-            desc.classFile = classFile;
-            desc.javaFile = foundInfo.getJavaFile();
-            desc.signature = getCacheSignature(desc);
-            File cacheFile = getCacheFile(desc, foundInfo.getProjectInfo());
-            if (cacheFile != null && cacheFile.isFile() && cacheFile.exists()) {
-                desc.enhancedClassFile = cacheFile;
-                desc.lastModified = desc.enhancedClassFile.lastModified();
+        }
+    }
+
+    /**
+     * 从缓存包读取所属类当前版本生成的类
+     */
+    private ClassDescription getGenerated(String name) {
+        String ownerName = getOwnerName(name);
+        if (ownerName == null) return null;
+        ClassDescription owner = get(ownerName);
+        if (owner == null) return null;
+        ClassDescription desc = classCache.get(name);
+        if (desc != null) return desc;
+        String signature = getGeneratedSignature(owner.getSignature(), name);
+        EnhancedCachePack pack = EnhancedCachePack.get(owner.projectInfo);
+        EnhancedCachePack.Entry entry = pack.getEntry(name, signature);
+        if (entry == null) return null;
+        desc = new GeneratedClassDesc(name, owner.projectInfo);
+        desc.reset(signature, null, entry.getTimestamp());
+        desc.setFingerprint(entry.getFingerprint());
+        desc.setEnhancedByteCode(pack.read(entry));
+        ClassDescription exists = classCache.putIfAbsent(name, desc);
+        if (exists != null) {
+            desc.discard();
+            return exists;
+        }
+        desc.release(ClassDescription.getTotalResidentSize() > MEMORY_BUDGET);
+        return desc;
+    }
+
+    private ClassDescription create(String name, JavaSource.FoundInfo foundInfo) {
+        File classFile = JavaSource.getExistsClassFile(name);
+        if (classFile == null) {
+            classFile = foundInfo.getClassFile();
+        }
+        byte[] bytecode = null;
+        Long lastModified = null;
+        if (classFile.isFile() && classFile.exists()) {
+            try {
+                lastModified = classFile.lastModified();
+                bytecode = Files.readAllBytes(classFile.toPath());
+            } catch (IOException e) {
+                throw new UnexpectedException("Read java source file error", e);
+            }
+        }
+        ClassDescription desc = new AppClassDesc();
+        desc.className = name;
+        desc.projectInfo = foundInfo.getProjectInfo();
+        desc.classFile = classFile;
+        desc.javaFile = foundInfo.getJavaFile();
+        desc.setClassFileStamp(lastModified);
+        String signature = getCacheSignature(bytecode);
+        EnhancedCachePack pack = EnhancedCachePack.get(desc.projectInfo);
+        EnhancedCachePack.Entry entry = pack.getEntry(name, signature);
+        if (entry != null) {
+            desc.reset(signature, bytecode, entry.getTimestamp());
+            desc.setFingerprint(entry.getFingerprint());
+            desc.setEnhancedByteCode(pack.read(entry));
+            logger.trace("loaded class cache {}", name);
+            ClassIndex index = ClassIndex.get(desc.projectInfo);
+            if (!index.contains(name)) {
                 try {
-                    desc.enhancedByteCode = Files.readAllBytes(cacheFile.toPath());
-                    logger.trace("loaded class cache {}", name);
+                    index.update(ClassHeader.read(desc.getEnhancedByteCode()));
                 } catch (IOException e) {
-                    throw new UnexpectedException("read class cache file error", e);
+                    logger.debug("read class header {} error", name, e);
                 }
             }
-            classCache.put(name, desc);
+            desc.release(ClassDescription.getTotalResidentSize() > MEMORY_BUDGET);
+        } else {
+            desc.reset(signature, bytecode, lastModified);
         }
         return desc;
     }
 
     public void writeCache(ClassDescription desc) {
-        File cacheFile = desc.enhancedClassFile;
-        logger.trace("write class cache file {}", cacheFile);
+        ClassDescription.Snapshot snapshot = desc.getSnapshot();
+        // 只缓存增强结果，增强失败时不能把原始字节码当作增强结果写入
+        if (snapshot.getSignature() == null || !snapshot.isEnhanced()) return;
+        byte[] bytecode = desc.getEnhancedByteCode();
+        // 期间发布了新版本时由新版本写入
+        if (bytecode == null || desc.getSnapshot().getVersion() != snapshot.getVersion()) return;
+        byte[] classByteCode = desc.getClassByteCode();
+        String fingerprint = snapshot.getFingerprint();
+        if (fingerprint == null) {
+            fingerprint = ClassFingerprint.semantic(classByteCode);
+            desc.setFingerprint(fingerprint);
+        }
+        logger.trace("write class cache {}", desc.className);
+        EnhancedCachePack pack = EnhancedCachePack.get(desc.projectInfo);
+        pack.put(desc.className, snapshot.getSignature(), fingerprint, bytecode);
+        if (pack.getSize() > MAX_CACHE_SIZE && COMPACTING.compareAndSet(false, true)) {
+            ProjectInfo info = desc.projectInfo;
+            startDaemon(() -> {
+                try {
+                    // 整理到上限的四分之三，留出之后追加的空间
+                    compact(info, MAX_CACHE_SIZE / 4 * 3);
+                } finally {
+                    COMPACTING.set(false);
+                }
+            }, "ameba-enhanced-cache-compact");
+        }
+        SharedEnhancedCache shared = SharedEnhancedCache.get();
+        if (shared != null && classByteCode != null) {
+            String key = SharedEnhancedCache.key(hashSignature, classByteCode);
+            Map<String, byte[]> generated = getGeneratedByteCodes(desc.className, snapshot.getSignature());
+            WriteBehind.submit(key, () -> shared.write(key, bytecode, generated));
+        }
+        // 同步更新修改时间，延后执行时可能晚于之后的编译或读取
+        desc.touchClassFile(System.currentTimeMillis());
+        desc.release(ClassDescription.getTotalResidentSize() > MEMORY_BUDGET);
+    }
+
+    /**
+     * 从共享缓存读取增强结果和一起写入的生成类，读到时不需要再增强
+     *
+     * @param desc class description
+     * @return 是否已从共享缓存读取
+     */
+    public boolean loadShared(ClassDescription desc) {
+        SharedEnhancedCache shared = SharedEnhancedCache.get();
+        byte[] classByteCode = desc.getClassByteCode();
+        if (shared == null || classByteCode == null) return false;
+        String key = SharedEnhancedCache.key(hashSignature, classByteCode);
+        byte[] bytecode = shared.read(key);
+        if (bytecode == null) return false;
+        // 生成的类不完整时重新增强，由增强器重新生成
+        Map<String, byte[]> generated = shared.readGenerated(key);
+        if (generated == null) return false;
         try {
-            FileUtils.writeByteArrayToFile(cacheFile,
-                    desc.enhancedByteCode == null ? desc.classByteCode : desc.enhancedByteCode, false);
-            if (desc.classFile != null && desc.classFile.exists()) {
-                desc.classFile.setLastModified(System.currentTimeMillis());
+            ClassHeader header = ClassHeader.read(bytecode);
+            ClassHierarchy.update(header);
+            ClassIndex.get(desc.projectInfo).update(header);
+        } catch (IOException e) {
+            return false;
+        }
+        for (Map.Entry<String, byte[]> entry : generated.entrySet()) {
+            putGenerated(desc.className, desc.getSignature(), desc.projectInfo, entry.getKey(), entry.getValue());
+        }
+        desc.setEnhancedByteCode(bytecode);
+        logger.trace("loaded shared class cache {}", desc.className);
+        return true;
+    }
+
+    /**
+     * 立即开始在后台把缓存包中待写入的记录写入文件
+     */
+    public void flush() {
+        for (EnhancedCachePack pack : EnhancedCachePack.getPacks()) {
+            WriteBehind.submit(pack, pack::flush, true);
+        }
+    }
+
+    /**
+     * 调试时保存每个增强器处理后的字节码
+     *
+     * @param desc  class draft
+     * @param index enhancer index
+     * @return debug file
+     */
+    public static File getDebugFile(ClassDraft desc, int index) {
+        return desc.projectInfo.getOutputDirectory()
+                .resolve("../generated-classes/ameba/enhanced-debug/"
+                        .concat(desc.className.replace(".", "/"))
+                        .concat(JavaSource.CLASS_EXTENSION)
+                        .concat(".")
+                        .concat(String.valueOf(index)))
+                .normalize().toFile();
+    }
+
+    /**
+     * 启动时清理增强缓存：删除旧版本的缓存目录和本次启动之前的调试文件，
+     * 整理缓存包中签名已不对应任何现有类的记录；之后缓存包超出上限时再次整理
+     */
+    public void collectGarbage() {
+        long startTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+        projectInfo.forEach(info -> {
+            Path dir = info.getOutputDirectory().resolve("../generated-classes/ameba/").normalize();
+            FileUtils.deleteQuietly(dir.resolve("enhanced-cache").toFile());
+            File debugDir = dir.resolve("enhanced-debug").toFile();
+            if (debugDir.isDirectory()) {
+                for (File file : FileUtils.listFiles(debugDir, null, true)) {
+                    if (file.lastModified() < startTime) FileUtils.deleteQuietly(file);
+                }
+            }
+            compact(info, MAX_CACHE_SIZE);
+            return true;
+        });
+    }
+
+    /**
+     * 整理缓存包，删除对应的类已经不存在的旁路文件
+     *
+     * @param info    project info
+     * @param maxSize 缓存包整理后的大小上限
+     */
+    private void compact(ProjectInfo info, long maxSize) {
+        try {
+            EnhancedCachePack.get(info).compact((name, signature) -> isLive(info, name, signature), maxSize);
+        } catch (Exception e) {
+            logger.warn("collect enhanced cache garbage error", e);
+        }
+        Path dir = info.getOutputDirectory().resolve("../generated-classes/ameba/").normalize();
+        for (String sidecar : SIDECAR_DIRS) {
+            Path sidecarDir = dir.resolve(sidecar);
+            if (!Files.isDirectory(sidecarDir)) continue;
+            for (File file : FileUtils.listFiles(sidecarDir.toFile(), null, true)) {
+                String path = FilenameUtils.removeExtension(sidecarDir.relativize(file.toPath()).toString());
+                if (!info.getOutputDirectory().resolve(path.concat(JavaSource.CLASS_EXTENSION)).toFile().isFile()) {
+                    FileUtils.deleteQuietly(file);
+                }
+            }
+        }
+    }
+
+    private boolean isLive(ProjectInfo info, String name, String signature) {
+        ClassDescription desc = classCache.get(name);
+        if (desc != null) return signature.equals(desc.getSignature());
+        String owner = getOwnerName(name);
+        File classFile = info.getOutputDirectory()
+                .resolve(name.replace(".", "/").concat(JavaSource.CLASS_EXTENSION)).toFile();
+        if (owner != null && !classFile.isFile()) {
+            // 生成的类没有 class 文件，与所属类的当前版本对应时保留
+            classFile = info.getOutputDirectory()
+                    .resolve(owner.replace(".", "/").concat(JavaSource.CLASS_EXTENSION)).toFile();
+            if (!classFile.isFile()) return false;
+            try {
+                String ownerSignature = getCacheSignature(Files.readAllBytes(classFile.toPath()));
+                return signature.equals(getGeneratedSignature(ownerSignature, name));
+            } catch (IOException e) {
+                return false;
             }
+        }
+        if (!classFile.isFile()) return false;
+        try {
+            return signature.equals(getCacheSignature(Files.readAllBytes(classFile.toPath())));
         } catch (IOException e) {
-            throw new UnexpectedException("create class cache file error", e);
+            return false;
         }
     }
 
+    /**
+     * 各个类常驻内存的字节码大小
+     *
+     * @return class name to resident bytes
+     */
+    public Map<String, Long> getResidentSizes() {
+        Map<String, Long> sizes = Maps.newTreeMap();
+        for (ClassDescription desc : classCache.values()) {
+            sizes.put(desc.className, desc.getResidentSize());
+        }
+        return sizes;
+    }
+
+    public long getResidentSize() {
+        return ClassDescription.getTotalResidentSize();
+    }
+
     public Set<String> keys() {
         return classCache.keySet();
     }
@@ -112,40 +461,38 @@ public class ClassCache {
         return projectInfo;
     }
 
-    private File getCacheFile(ClassDescription desc, ProjectInfo info) {
-        if (desc.signature == null) return null;
-        return info.getOutputDirectory()
-                .resolve("../generated-classes/ameba/enhanced-cache/"
-                        .concat(desc.className.replace(".", "/")
-                                .concat(".")
-                                .concat(desc.signature)
-                                .concat(JavaSource.CLASS_EXTENSION)))
-                .normalize().toFile();
-    }
-
-    String getCacheSignature(ClassDescription desc) {
-        if (desc == null || desc.classByteCode == null) return null;
+    private String getCacheSignature(byte[] bytes) {
+        if (bytes == null) return null;
         return Hashing.murmur3_32().newHasher()
                 .putUnencodedChars(hashSignature)
                 .putChar('.')
-                .putBytes(desc.classByteCode)
+                .putBytes(bytes)
                 .hash().toString();
     }
 
     private class AppClassDesc extends ClassDescription {
         @Override
         public synchronized void refresh() {
-            enhancedByteCode = null;
-            signature = getCacheSignature(this);
-            enhancedClassFile = getCacheFile(this, projectInfo);
-            lastModified = System.currentTimeMillis();
+            byte[] bytecode = getClassByteCode();
+            reset(getCacheSignature(bytecode), bytecode, System.currentTimeMillis());
         }
 
-        public File getEnhancedClassFile() {
-            if (enhancedClassFile == null && classByteCode != null) {
-                enhancedClassFile = getCacheFile(this, projectInfo);
-            }
-            return enhancedClassFile;
+        @Override
+        protected boolean isEnhancedCached() {
+            return EnhancedCachePack.get(projectInfo).getEntry(className, getSignature()) != null;
+        }
+
+        @Override
+        protected byte[] readEnhancedByteCode() {
+            return EnhancedCachePack.get(projectInfo).get(className, getSignature());
+        }
+
+        @Override
+        public synchronized void destroyEnhanced() {
+            super.destroyEnhanced();
+            EnhancedCachePack.get(projectInfo).remove(className);
+            // 重新增强时再生成
+            removeGenerated(className);
         }
 
         @Override
@@ -154,6 +501,56 @@ public class ClassCache {
             FileUtils.deleteQuietly(javaFile);
             FileUtils.deleteQuietly(classFile);
             classCache.remove(className);
+            ClassHierarchy.remove(className);
+            ClassIndex.get(projectInfo).remove(className);
+        }
+    }
+
+    /**
+     * 增强时生成的类，只有增强后的字节码，保存在缓存包中
+     */
+    private static class GeneratedClassDesc extends ClassDescription {
+        private final String owner;
+
+        GeneratedClassDesc(String name, ProjectInfo projectInfo) {
+            this.className = name;
+            this.projectInfo = projectInfo;
+            this.owner = getOwnerName(name);
+        }
+
+        @Override
+        public void refresh() {
+            // 由所属类增强时重新生成
+        }
+
+        @Override
+        protected boolean isEnhancedCached() {
+            return projectInfo != null
+                    && EnhancedCachePack.get(projectInfo).getEntry(className, getSignature()) != null;
+        }
+
+        @Override
+        protected byte[] readEnhancedByteCode() {
+            return projectInfo == null ? null : EnhancedCachePack.get(projectInfo).get(className, getSignature());
+        }
+
+        @Override
+        public synchronized void destroyEnhanced() {
+            super.destroyEnhanced();
+            if (projectInfo != null) EnhancedCachePack.get(projectInfo).remove(className);
+        }
+
+        @Override
+        public synchronized void destroy() {
+            destroyEnhanced();
+            classCache.remove(className, this);
+            ClassHierarchy.remove(className);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            ClassDescription desc = classCache.get(owner);
+            return desc != null && desc.isAvailable();
         }
     }
 
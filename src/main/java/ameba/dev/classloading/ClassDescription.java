@@ -2,48 +2,263 @@ package ameba.dev.classloading;
 
 import ameba.dev.info.ProjectInfo;
 import ameba.exception.UnexpectedException;
-import org.apache.commons.io.FileUtils;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.SoftReference;
 import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * 类描述
+ * <p>
+ * 签名和字节码保存在不可变的 {@link Snapshot} 中，读取不加锁；每次编译或增强完成发布一个新版本，
+ * 增强器在 {@link #draft()} 得到的 {@link ClassDraft} 上工作，读取方不会看到增强到一半的字节码。
+ * <p>
+ * 原始字节码在增强结果写入缓存后释放，需要时从 class 文件重新读取；
+ * 缓存占用超过预算时增强后的字节码改为软引用，被回收后从缓存包重新读取
+ *
  * @author icode
  */
 public abstract class ClassDescription {
+    private static final AtomicLong RESIDENT_SIZE = new AtomicLong();
     public String className;
     public File classFile;
     public File javaFile;
-    public byte[] enhancedByteCode;
-    public String signature;
-    public byte[] classByteCode;
     public ProjectInfo projectInfo;
-    File enhancedClassFile;
-    transient Long lastModified;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private volatile SoftReference<byte[]> softEnhancedByteCode;
+    /**
+     * 原始字节码从 class 文件读取时文件的修改时间，不是从文件读取的字节码为 null
+     */
+    private volatile Long classFileStamp;
 
     public static boolean isClass(String name) {
         return name != null && !name.endsWith("package-info");
     }
 
-    public File getEnhancedClassFile() {
-        return enhancedClassFile;
+    /**
+     * @return 所有类描述中强引用的字节码大小
+     */
+    public static long getTotalResidentSize() {
+        return RESIDENT_SIZE.get();
     }
 
-    public byte[] getClassByteCode() {
-        return classByteCode;
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    /**
+     * @return 当前发布的快照
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    public String getSignature() {
+        return snapshot.signature;
     }
 
     public Long getLastModified() {
-        return lastModified;
+        return snapshot.lastModified;
+    }
+
+    /**
+     * @return 原始字节码的语义指纹，见 {@link ClassFingerprint}，还未计算时返回 null
+     */
+    public String getFingerprint() {
+        return snapshot.fingerprint;
+    }
+
+    synchronized void setFingerprint(String fingerprint) {
+        swap(snapshot.withFingerprint(fingerprint));
+    }
+
+    private synchronized void swap(Snapshot next) {
+        RESIDENT_SIZE.addAndGet(next.getResidentSize() - snapshot.getResidentSize());
+        snapshot = next;
+    }
+
+    /**
+     * 发布新版本：新的签名，清空增强结果
+     *
+     * @param signature     signature
+     * @param classByteCode class byte code
+     * @param lastModified  last modified
+     */
+    protected synchronized void reset(String signature, byte[] classByteCode, Long lastModified) {
+        softEnhancedByteCode = null;
+        swap(new Snapshot(snapshot.version + 1, signature, null, classByteCode, null, false, lastModified));
+    }
+
+    public byte[] getClassByteCode() {
+        byte[] bytes = snapshot.classByteCode;
+        if (bytes == null && classFile != null && classFile.isFile()) {
+            // 先取修改时间，读取期间文件被修改时不会与之后的时间相同
+            long stamp = classFile.lastModified();
+            try {
+                bytes = Files.readAllBytes(classFile.toPath());
+            } catch (IOException e) {
+                throw new UnexpectedException("Read class byte code error", e);
+            }
+            synchronized (this) {
+                Snapshot s = snapshot;
+                if (s.classByteCode != null) return s.classByteCode;
+                swap(s.withClassByteCode(bytes));
+                classFileStamp = stamp;
+            }
+        }
+        return bytes;
+    }
+
+    public synchronized void setClassByteCode(byte[] classByteCode) {
+        swap(snapshot.withClassByteCode(classByteCode));
+        classFileStamp = null;
+    }
+
+    /**
+     * 更新 class 文件的修改时间，让下次启动时能判断缓存是否过期；
+     * 原始字节码读取自修改前的文件时同时更新记录的修改时间，之后仍可释放
+     *
+     * @param time 修改时间
+     */
+    synchronized void touchClassFile(long time) {
+        if (classFile == null || !classFile.isFile()) return;
+        Long stamp = classFileStamp;
+        boolean unchanged = stamp != null && classFile.lastModified() == stamp;
+        if (classFile.setLastModified(time) && unchanged) {
+            classFileStamp = classFile.lastModified();
+        } else if (!unchanged) {
+            classFileStamp = null;
+        }
+    }
+
+    /**
+     * 记录当前的原始字节码读取自 class 文件
+     *
+     * @param stamp 读取前文件的修改时间
+     */
+    synchronized void setClassFileStamp(Long stamp) {
+        classFileStamp = stamp;
+    }
+
+    /**
+     * @return 增强后的字节码，还未增强时返回 null
+     */
+    public byte[] getEnhancedByteCode() {
+        Snapshot s = snapshot;
+        if (s.enhancedByteCode != null || !s.enhanced) return s.enhancedByteCode;
+        SoftReference<byte[]> soft = softEnhancedByteCode;
+        byte[] bytes = soft == null ? null : soft.get();
+        if (bytes == null) {
+            bytes = readEnhancedByteCode();
+            synchronized (this) {
+                if (snapshot == s) {
+                    softEnhancedByteCode = bytes == null ? null : new SoftReference<>(bytes);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 发布增强后的字节码，版本加一
+     *
+     * @param enhancedByteCode enhanced byte code
+     */
+    public synchronized void setEnhancedByteCode(byte[] enhancedByteCode) {
+        softEnhancedByteCode = null;
+        swap(snapshot.withEnhancedByteCode(enhancedByteCode));
+    }
+
+    public boolean hasEnhancedByteCode() {
+        return snapshot.enhanced;
+    }
+
+    /**
+     * 创建增强用的草稿，内容与当前快照相同，修改草稿不影响本描述
+     *
+     * @return draft
+     */
+    public ClassDraft draft() {
+        return new ClassDraft(this, snapshot);
+    }
+
+    /**
+     * 把草稿的结果作为一个新版本发布；创建草稿后描述已发布过新版本时丢弃草稿，
+     * 新版本由之后的增强发布，不能用旧版本的增强结果覆盖
+     *
+     * @param draft 由 {@link #draft()} 创建的草稿
+     * @return 是否已发布
+     */
+    public synchronized boolean publish(ClassDraft draft) {
+        if (draft.getOrigin() != this) {
+            throw new IllegalArgumentException("not a draft of " + className);
+        }
+        if (draft.getBaseVersion() != snapshot.version) return false;
+        Snapshot d = draft.getSnapshot();
+        softEnhancedByteCode = null;
+        swap(new Snapshot(snapshot.version + 1, d.signature, d.fingerprint, d.classByteCode,
+                d.enhancedByteCode, d.enhanced, d.lastModified));
+        return true;
+    }
+
+    /**
+     * 增强后的字节码已写入缓存后调用，释放原始字节码；over budget 时增强后的字节码也改为软引用
+     *
+     * @param overBudget 缓存是否已超出内存预算
+     */
+    synchronized void release(boolean overBudget) {
+        Snapshot s = snapshot;
+        Snapshot next = s;
+        // 字节码读取自 class 文件且文件之后没有被修改时才释放，保证之后可以重新读取；
+        // 编译器在内存中生成的字节码不一定已经写入文件，不释放
+        Long stamp = classFileStamp;
+        if (s.classByteCode != null && classFile != null && stamp != null && classFile.lastModified() == stamp) {
+            next = next.withClassByteCode(null);
+        }
+        if (overBudget && s.enhancedByteCode != null && isEnhancedCached()) {
+            softEnhancedByteCode = new SoftReference<>(s.enhancedByteCode);
+            next = new Snapshot(next.version, next.signature, next.fingerprint, next.classByteCode,
+                    null, true, next.lastModified);
+        }
+        if (next != s) swap(next);
+    }
+
+    /**
+     * 丢弃没有使用的描述，不再计入常驻内存
+     */
+    synchronized void discard() {
+        softEnhancedByteCode = null;
+        swap(Snapshot.EMPTY);
+    }
+
+    /**
+     * @return 当前强引用的字节码大小
+     */
+    public long getResidentSize() {
+        return snapshot.getResidentSize();
+    }
+
+    /**
+     * @return 增强后的字节码是否已经写入缓存，可以重新读取
+     */
+    protected boolean isEnhancedCached() {
+        return false;
     }
 
-    public void destroyEnhanced() {
-        enhancedByteCode = null;
-        FileUtils.deleteQuietly(getEnhancedClassFile());
-        enhancedClassFile = null;
+    protected byte[] readEnhancedByteCode() {
+        return null;
+    }
+
+    public synchronized void destroyEnhanced() {
+        setEnhancedByteCode(null);
     }
 
     public abstract void refresh();
@@ -54,18 +269,92 @@ public abstract class ClassDescription {
         return javaFile != null && javaFile.exists();
     }
 
+    /**
+     * 当前的字节码，还没有增强时为原始字节码，只读取不发布新版本
+     *
+     * @return byte code stream
+     */
     public InputStream getEnhancedByteCodeStream() {
-
-        if (enhancedByteCode == null) {
-            if (classByteCode == null) {
-                try {
-                    enhancedByteCode = Files.readAllBytes(classFile.toPath());
-                } catch (IOException e) {
-                    throw new UnexpectedException("Read class byte code error", e);
-                }
+        byte[] bytes = getEnhancedByteCode();
+        if (bytes == null) {
+            bytes = getClassByteCode();
+            if (bytes == null) {
+                throw new UnexpectedException("Read class byte code error, class file not found: " + classFile);
             }
-            enhancedByteCode = classByteCode;
         }
-        return new ByteArrayInputStream(enhancedByteCode);
+        return new ByteArrayInputStream(bytes);
+    }
+
+    /**
+     * 类描述某个版本的状态，创建后不再修改
+     */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(0, null, null, null, null, false, null);
+        private final long version;
+        private final String signature;
+        private final String fingerprint;
+        private final byte[] classByteCode;
+        private final byte[] enhancedByteCode;
+        private final boolean enhanced;
+        private final Long lastModified;
+
+        Snapshot(long version, String signature, String fingerprint, byte[] classByteCode,
+                 byte[] enhancedByteCode, boolean enhanced, Long lastModified) {
+            this.version = version;
+            this.signature = signature;
+            this.fingerprint = fingerprint;
+            this.classByteCode = classByteCode;
+            this.enhancedByteCode = enhancedByteCode;
+            this.enhanced = enhanced;
+            this.lastModified = lastModified;
+        }
+
+        Snapshot withClassByteCode(byte[] classByteCode) {
+            return new Snapshot(version, signature, fingerprint, classByteCode, enhancedByteCode, enhanced, lastModified);
+        }
+
+        Snapshot withFingerprint(String fingerprint) {
+            return new Snapshot(version, signature, fingerprint, classByteCode, enhancedByteCode, enhanced, lastModified);
+        }
+
+        /**
+         * 新的增强结果，版本加一
+         */
+        Snapshot withEnhancedByteCode(byte[] enhancedByteCode) {
+            return new Snapshot(version + 1, signature, fingerprint, classByteCode,
+                    enhancedByteCode, enhancedByteCode != null, lastModified);
+        }
+
+        byte[] classByteCode() {
+            return classByteCode;
+        }
+
+        byte[] enhancedByteCode() {
+            return enhancedByteCode;
+        }
+
+        long getResidentSize() {
+            return length(classByteCode) + length(enhancedByteCode);
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String getSignature() {
+            return signature;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public boolean isEnhanced() {
+            return enhanced;
+        }
+
+        public Long getLastModified() {
+            return lastModified;
+        }
     }
 }
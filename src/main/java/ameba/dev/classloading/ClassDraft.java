@@ -0,0 +1,98 @@
+package ameba.dev.classloading;
+
+import ameba.dev.info.ProjectInfo;
+import ameba.exception.UnexpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * 增强用的类描述草稿
+ * <p>
+ * 由 {@link ClassDescription#draft()} 创建，内容与创建时的快照相同，增强器只修改草稿，
+ * 全部完成后由 {@link ClassDescription#publish(ClassDraft)} 一次发布；草稿只在增强线程内使用，不需要同步
+ *
+ * @author icode
+ */
+public final class ClassDraft {
+    public final String className;
+    public final File classFile;
+    public final File javaFile;
+    public final ProjectInfo projectInfo;
+    private final ClassDescription origin;
+    private final long baseVersion;
+    private ClassDescription.Snapshot snapshot;
+
+    ClassDraft(ClassDescription origin, ClassDescription.Snapshot snapshot) {
+        this.origin = origin;
+        this.baseVersion = snapshot.getVersion();
+        this.snapshot = snapshot;
+        this.className = origin.className;
+        this.classFile = origin.classFile;
+        this.javaFile = origin.javaFile;
+        this.projectInfo = origin.projectInfo;
+    }
+
+    ClassDescription getOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return 创建草稿时原描述的版本
+     */
+    long getBaseVersion() {
+        return baseVersion;
+    }
+
+    ClassDescription.Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public String getSignature() {
+        return snapshot.getSignature();
+    }
+
+    public String getFingerprint() {
+        return snapshot.getFingerprint();
+    }
+
+    public byte[] getClassByteCode() {
+        byte[] bytes = snapshot.classByteCode();
+        return bytes != null ? bytes : origin.getClassByteCode();
+    }
+
+    /**
+     * @return 增强后的字节码，还没有增强器修改过时返回 null
+     */
+    public byte[] getEnhancedByteCode() {
+        ClassDescription.Snapshot s = snapshot;
+        if (s.enhancedByteCode() != null || !s.isEnhanced()) return s.enhancedByteCode();
+        // 快照中的增强结果已改为软引用，从原描述读取
+        return origin.getEnhancedByteCode();
+    }
+
+    public void setEnhancedByteCode(byte[] enhancedByteCode) {
+        snapshot = snapshot.withEnhancedByteCode(enhancedByteCode);
+    }
+
+    public boolean hasEnhancedByteCode() {
+        return snapshot.isEnhanced();
+    }
+
+    /**
+     * 当前的字节码，还没有增强时为原始字节码，只读取不修改草稿
+     *
+     * @return byte code stream
+     */
+    public InputStream getEnhancedByteCodeStream() {
+        byte[] bytes = getEnhancedByteCode();
+        if (bytes == null) {
+            bytes = getClassByteCode();
+            if (bytes == null) {
+                throw new UnexpectedException("Read class byte code error, class file not found: " + classFile);
+            }
+        }
+        return new ByteArrayInputStream(bytes);
+    }
+}
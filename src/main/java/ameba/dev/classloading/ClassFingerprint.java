@@ -0,0 +1,75 @@
+package ameba.dev.classloading;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import javassist.bytecode.AttributeInfo;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.MethodInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 字节码的语义指纹
+ * <p>
+ * 去掉行号、局部变量表、源文件名等调试信息并整理常量池后计算，
+ * 只修改注释、空行等不影响语义的内容时指纹不变
+ *
+ * @author icode
+ */
+public class ClassFingerprint {
+    private static final Logger logger = LoggerFactory.getLogger(ClassFingerprint.class);
+    private static final Set<String> DEBUG_ATTRIBUTES = ImmutableSet.of(
+            "LineNumberTable",
+            "LocalVariableTable",
+            "LocalVariableTypeTable",
+            "SourceFile",
+            "SourceDebugExtension"
+    );
+
+    private ClassFingerprint() {
+    }
+
+    /**
+     * @param bytecode 原始字节码
+     * @return 语义指纹，无法解析时返回 null
+     */
+    public static String semantic(byte[] bytecode) {
+        if (bytecode == null) return null;
+        try {
+            ClassFile classFile = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytecode)));
+            strip(classFile.getAttributes());
+            for (Object method : classFile.getMethods()) {
+                CodeAttribute code = ((MethodInfo) method).getCodeAttribute();
+                if (code != null) {
+                    strip(code.getAttributes());
+                }
+            }
+            classFile.compact();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytecode.length);
+            classFile.write(new DataOutputStream(out));
+            return Hashing.murmur3_128().hashBytes(out.toByteArray()).toString();
+        } catch (IOException | RuntimeException e) {
+            logger.debug("compute class fingerprint error", e);
+            return null;
+        }
+    }
+
+    private static void strip(List<?> attributes) {
+        Iterator<?> iterator = attributes.iterator();
+        while (iterator.hasNext()) {
+            if (DEBUG_ATTRIBUTES.contains(((AttributeInfo) iterator.next()).getName())) {
+                iterator.remove();
+            }
+        }
+    }
+}
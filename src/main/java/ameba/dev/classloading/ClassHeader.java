@@ -0,0 +1,241 @@
+package ameba.dev.classloading;
+
+import ameba.dev.classloading.enhancers.Enhanced;
+import com.google.common.collect.Sets;
+
+import java.io.*;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * 轻量级 class 文件头读取，只解析常量池、访问标识、父类、接口以及类注解，不构建 CtClass
+ *
+ * @author icode
+ */
+public class ClassHeader {
+    public static final int ACC_INTERFACE = 0x0200;
+    public static final int ACC_ANNOTATION = 0x2000;
+    public static final int ACC_ENUM = 0x4000;
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final String VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+    private static final String INVISIBLE_ANNOTATIONS = "RuntimeInvisibleAnnotations";
+    private static final String ENHANCED_ANNOTATION = Enhanced.class.getName();
+
+    private int access;
+    private String className;
+    private String superName;
+    private String[] interfaces;
+    private Set<String> annotations = Collections.emptySet();
+
+    private ClassHeader() {
+    }
+
+    public static ClassHeader read(byte[] bytecode) throws IOException {
+        return read(new ByteArrayInputStream(bytecode), true);
+    }
+
+    public static ClassHeader read(InputStream in) throws IOException {
+        return read(in, true);
+    }
+
+    /**
+     * 读取 class 文件头
+     *
+     * @param in              class 字节流
+     * @param readAnnotations 是否继续跳过字段和方法读取类注解，为 false 时读到接口即停止
+     * @return class header
+     * @throws IOException 非法 class 文件或读取出错
+     */
+    public static ClassHeader read(InputStream in, boolean readAnnotations) throws IOException {
+        DataInputStream data = in instanceof DataInputStream
+                ? (DataInputStream) in : new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        data.readUnsignedShort(); // minor version
+        data.readUnsignedShort(); // major version
+
+        int poolSize = data.readUnsignedShort();
+        String[] utf8 = new String[poolSize];
+        int[] classes = new int[poolSize];
+        for (int i = 1; i < poolSize; i++) {
+            int tag = data.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = data.readUTF();
+                    break;
+                case 7: // Class
+                    classes[i] = data.readUnsignedShort();
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    skip(data, 2);
+                    break;
+                case 15: // MethodHandle
+                    skip(data, 3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    skip(data, 4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    skip(data, 8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        ClassHeader header = new ClassHeader();
+        header.access = data.readUnsignedShort();
+        header.className = className(utf8, classes, data.readUnsignedShort());
+        header.superName = className(utf8, classes, data.readUnsignedShort());
+        int interfaceCount = data.readUnsignedShort();
+        header.interfaces = new String[interfaceCount];
+        for (int i = 0; i < interfaceCount; i++) {
+            header.interfaces[i] = className(utf8, classes, data.readUnsignedShort());
+        }
+
+        if (readAnnotations) {
+            skipMembers(data); // fields
+            skipMembers(data); // methods
+            int attributeCount = data.readUnsignedShort();
+            for (int i = 0; i < attributeCount; i++) {
+                String name = utf8[data.readUnsignedShort()];
+                int length = data.readInt();
+                if (VISIBLE_ANNOTATIONS.equals(name) || INVISIBLE_ANNOTATIONS.equals(name)) {
+                    if (header.annotations.isEmpty()) {
+                        header.annotations = Sets.newLinkedHashSet();
+                    }
+                    int count = data.readUnsignedShort();
+                    for (int j = 0; j < count; j++) {
+                        header.annotations.add(descriptorToName(utf8[data.readUnsignedShort()]));
+                        skipAnnotationBody(data);
+                    }
+                } else {
+                    skip(data, length);
+                }
+            }
+        }
+        return header;
+    }
+
+    private static String className(String[] utf8, int[] classes, int index) {
+        if (index == 0) return null;
+        return utf8[classes[index]].replace('/', '.');
+    }
+
+    private static String descriptorToName(String descriptor) {
+        // Lpkg/Name; -> pkg.Name
+        return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+    }
+
+    private static void skipMembers(DataInputStream data) throws IOException {
+        int count = data.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            skip(data, 6); // access, name, descriptor
+            skipAttributes(data);
+        }
+    }
+
+    private static void skipAttributes(DataInputStream data) throws IOException {
+        int count = data.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            skip(data, 2);
+            skip(data, data.readInt());
+        }
+    }
+
+    private static void skipAnnotationBody(DataInputStream data) throws IOException {
+        int pairs = data.readUnsignedShort();
+        for (int i = 0; i < pairs; i++) {
+            skip(data, 2);
+            skipElementValue(data);
+        }
+    }
+
+    private static void skipElementValue(DataInputStream data) throws IOException {
+        int tag = data.readUnsignedByte();
+        switch (tag) {
+            case 'e':
+                skip(data, 4);
+                break;
+            case '@':
+                skip(data, 2);
+                skipAnnotationBody(data);
+                break;
+            case '[':
+                int count = data.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    skipElementValue(data);
+                }
+                break;
+            default:
+                // B C D F I J S Z s c
+                skip(data, 2);
+        }
+    }
+
+    private static void skip(DataInputStream data, int n) throws IOException {
+        while (n > 0) {
+            int skipped = data.skipBytes(n);
+            if (skipped <= 0) throw new EOFException();
+            n -= skipped;
+        }
+    }
+
+    public int getAccess() {
+        return access;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getSuperName() {
+        return superName;
+    }
+
+    public String[] getInterfaces() {
+        return interfaces;
+    }
+
+    public Set<String> getAnnotations() {
+        return Collections.unmodifiableSet(annotations);
+    }
+
+    public boolean hasAnnotation(String annotation) {
+        return annotations.contains(annotation);
+    }
+
+    public boolean isEnhanced() {
+        return hasAnnotation(ENHANCED_ANNOTATION);
+    }
+
+    public boolean isInterface() {
+        return (access & ACC_INTERFACE) != 0;
+    }
+
+    public boolean isAnnotation() {
+        return (access & ACC_ANNOTATION) != 0;
+    }
+
+    public boolean isEnum() {
+        return (access & ACC_ENUM) != 0;
+    }
+
+    public boolean isPackageInfo() {
+        return className != null && className.endsWith("package-info");
+    }
+}
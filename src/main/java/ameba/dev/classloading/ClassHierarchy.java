@@ -0,0 +1,190 @@
+package ameba.dev.classloading;
+
+import ameba.dev.compiler.JavaSource;
+import ameba.util.ClassUtils;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 类继承关系索引
+ * <p>
+ * 通过 class 文件头建立父类及接口的闭包，一次建立后常驻内存，重新编译时由 {@link EnhancerListener} 增量更新，
+ * 增强器可以直接查询而不必通过 ClassPool 逐级加载父类。
+ * 应用类的继承信息优先从持久化的 {@link ClassIndex} 读取，重启后不需要重新读取 class 文件。
+ *
+ * @author icode
+ */
+public class ClassHierarchy {
+    private static final Logger logger = LoggerFactory.getLogger(ClassHierarchy.class);
+    private static final String OBJECT = Object.class.getName();
+    private static final Set<String> PRIMITIVES = ImmutableSet.of(
+            "boolean", "byte", "char", "short", "int", "long", "float", "double", "void");
+    private static final Map<String, Node> nodes = Maps.newConcurrentMap();
+    /**
+     * 查询过但找不到的类，之后出现时依赖它的闭包需要失效
+     */
+    private static final Set<String> missing = Sets.newConcurrentHashSet();
+
+    private ClassHierarchy() {
+    }
+
+    /**
+     * 更新（或新增）一个类的继承信息，并使依赖它的闭包失效
+     *
+     * @param header class header
+     */
+    public static void update(ClassHeader header) {
+        if (header == null || header.getClassName() == null) return;
+        Node node = new Node(header.getSuperName(), header.getInterfaces());
+        Node old = nodes.put(header.getClassName(), node);
+        if (old == null ? missing.remove(header.getClassName()) : !old.sameAs(node)) {
+            nodes.values().forEach(Node::invalidate);
+        }
+    }
+
+    public static void remove(String className) {
+        if (nodes.remove(className) != null) {
+            nodes.values().forEach(Node::invalidate);
+        }
+    }
+
+    /**
+     * 与 {@link javassist.CtClass#subclassOf(javassist.CtClass)} 相同，只沿父类链判断
+     *
+     * @param className 类名
+     * @param superName 父类名
+     * @return className 是否为 superName 或其子类
+     */
+    public static boolean isSubclassOf(String className, String superName) {
+        if (className == null || superName == null) return false;
+        if (className.equals(superName)) return true;
+        if (isNotClassName(className)) return false;
+        return superClasses(className).contains(superName);
+    }
+
+    /**
+     * 判断 className 是否可以赋值给 typeName，包括实现的接口
+     *
+     * @param className 类名
+     * @param typeName  父类或接口名
+     * @return 是否为其子类型
+     */
+    public static boolean isSubtypeOf(String className, String typeName) {
+        if (className == null || typeName == null) return false;
+        if (className.equals(typeName) || OBJECT.equals(typeName)) return true;
+        if (isNotClassName(className)) return false;
+        return supertypes(className).contains(typeName);
+    }
+
+    public static Set<String> getSupertypes(String className) {
+        return supertypes(className);
+    }
+
+    private static boolean isNotClassName(String name) {
+        return name.endsWith("[]") || PRIMITIVES.contains(name);
+    }
+
+    private static Set<String> superClasses(String className) {
+        Node node = node(className);
+        if (node == null) return ImmutableSet.of();
+        Set<String> closure = node.superClasses;
+        if (closure == null) {
+            ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+            if (node.superName != null) {
+                builder.add(node.superName).addAll(superClasses(node.superName));
+            }
+            node.superClasses = closure = builder.build();
+        }
+        return closure;
+    }
+
+    private static Set<String> supertypes(String className) {
+        Node node = node(className);
+        if (node == null) return ImmutableSet.of();
+        Set<String> closure = node.supertypes;
+        if (closure == null) {
+            ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+            if (node.superName != null) {
+                builder.add(node.superName).addAll(supertypes(node.superName));
+            }
+            for (String inter : node.interfaces) {
+                builder.add(inter).addAll(supertypes(inter));
+            }
+            node.supertypes = closure = builder.build();
+        }
+        return closure;
+    }
+
+    private static Node node(String className) {
+        Node node = nodes.get(className);
+        if (node == null) {
+            node = load(className);
+            if (node != null) {
+                Node old = nodes.putIfAbsent(className, node);
+                if (old != null) node = old;
+            } else {
+                missing.add(className);
+            }
+        }
+        return node;
+    }
+
+    private static Node load(String className) {
+        ClassIndex.Entry entry = ClassIndex.find(className);
+        if (entry != null) {
+            return new Node(entry.getSuperName(), entry.getInterfaces().toArray(new String[0]));
+        }
+        try {
+            ClassHeader header = null;
+            ClassDescription desc = ReloadClassPath.getClassDesc(className);
+            if (desc != null && desc.getClassByteCode() != null) {
+                header = ClassHeader.read(desc.getClassByteCode());
+            } else {
+                ClassLoader loader = ClassUtils.getContextClassLoader();
+                try (InputStream in = loader == null ? null
+                        : loader.getResourceAsStream(JavaSource.getClassFileName(className))) {
+                    if (in != null) {
+                        header = ClassHeader.read(in, false);
+                    }
+                }
+            }
+            if (header != null) {
+                return new Node(header.getSuperName(), header.getInterfaces());
+            }
+        } catch (IOException e) {
+            logger.trace("read class header error: " + className, e);
+        }
+        return null;
+    }
+
+    private static class Node {
+        final String superName;
+        final String[] interfaces;
+        volatile Set<String> superClasses;
+        volatile Set<String> supertypes;
+
+        Node(String superName, String[] interfaces) {
+            this.superName = superName;
+            this.interfaces = interfaces == null ? new String[0] : interfaces;
+        }
+
+        void invalidate() {
+            superClasses = null;
+            supertypes = null;
+        }
+
+        boolean sameAs(Node other) {
+            return (superName == null ? other.superName == null : superName.equals(other.superName))
+                    && Arrays.equals(interfaces, other.interfaces);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package ameba.dev.classloading;
+
+import ameba.dev.classloading.enhancers.Enhanced;
+import ameba.dev.compiler.JavaSource;
+import ameba.dev.info.ProjectInfo;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 应用类的注解及继承关系索引
+ * <p>
+ * 增强时已经读取了每个类的 {@link ClassHeader}，顺便记录类注解、父类和接口，
+ * 保存在增强缓存旁的 {@code generated-classes/ameba/class-index} 中，随增强逐个类更新。
+ * 打开索引后在后台扫描一次输出目录，补上还没有增强过的类并删除 class 文件已不存在的类，
+ * 扫描得到的是原始字节码中的信息，增强后更新为增强结果中的信息。
+ * <p>
+ * 查询方法会等待扫描完成，结果包含输出目录中的所有类；插件可以据此查询带有某个注解
+ * （如 {@code @Path}、{@code @Provider}、{@code @Entity}）的类，不需要扫描 classpath 逐个加载类，
+ * {@link ClassHierarchy} 也从索引中读取增强前已知的继承关系
+ *
+ * @author icode
+ */
+public class ClassIndex {
+    public static final String INDEX_FILE = "../generated-classes/ameba/class-index";
+    private static final Logger logger = LoggerFactory.getLogger(ClassIndex.class);
+    private static final Map<Path, ClassIndex> INDEXES = Maps.newConcurrentMap();
+    private static final String EMPTY = "-";
+    private static final String ENHANCED = Enhanced.class.getName();
+
+    private final Path file;
+    private final Path outputDirectory;
+    private final Map<String, Entry> entries = Maps.newConcurrentMap();
+    private final Object scanLock = new Object();
+    private volatile boolean complete;
+    private long loadedTime;
+
+    ClassIndex(Path file, Path outputDirectory) {
+        this.file = file;
+        this.outputDirectory = outputDirectory;
+        load();
+    }
+
+    public static ClassIndex get(ProjectInfo info) {
+        Path path = info.getOutputDirectory().resolve(INDEX_FILE).normalize();
+        return INDEXES.computeIfAbsent(path, p -> new ClassIndex(p, info.getOutputDirectory()));
+    }
+
+    /**
+     * 读取项目及所有模块的索引，并在后台扫描输出目录
+     *
+     * @param projectInfo root project info
+     */
+    public static void open(ProjectInfo projectInfo) {
+        List<ClassIndex> indexes = Lists.newArrayList();
+        projectInfo.forEach(info -> {
+            ClassIndex index = get(info);
+            if (!index.isComplete()) indexes.add(index);
+            return true;
+        });
+        if (indexes.isEmpty()) return;
+        Thread thread = new Thread(() -> indexes.forEach(ClassIndex::scan), "ameba-class-index-scan");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private static Collection<ClassIndex> completeIndexes() {
+        Collection<ClassIndex> indexes = INDEXES.values();
+        indexes.forEach(ClassIndex::scan);
+        return indexes;
+    }
+
+    /**
+     * @param annotation 注解类名
+     * @return 所有模块中带有该类注解的类
+     */
+    public static Set<String> getClassesAnnotatedWith(String annotation) {
+        Set<String> classes = Sets.newTreeSet();
+        for (ClassIndex index : completeIndexes()) {
+            index.entries.forEach((name, entry) -> {
+                if (entry.annotations.contains(annotation)) classes.add(name);
+            });
+        }
+        return classes;
+    }
+
+    /**
+     * @param type 类或接口名
+     * @return 所有模块中直接或间接继承、实现该类型的类
+     */
+    public static Set<String> getSubtypes(String type) {
+        Map<String, Entry> all = Maps.newHashMap();
+        for (ClassIndex index : completeIndexes()) {
+            all.putAll(index.entries);
+        }
+        Set<String> types = Sets.newHashSet(type);
+        Set<String> subtypes = Sets.newTreeSet();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<String, Entry> e : all.entrySet()) {
+                if (!types.contains(e.getKey()) && e.getValue().isSubtypeOfAny(types)) {
+                    types.add(e.getKey());
+                    subtypes.add(e.getKey());
+                    changed = true;
+                }
+            }
+        }
+        return subtypes;
+    }
+
+    /**
+     * 查找已记录的类，不等待扫描完成
+     *
+     * @param className class name
+     * @return entry or null
+     */
+    public static Entry find(String className) {
+        for (ClassIndex index : INDEXES.values()) {
+            Entry entry = index.entries.get(className);
+            if (entry != null) return entry;
+        }
+        return null;
+    }
+
+    /**
+     * @return 所有模块中已索引的类
+     */
+    public static Set<String> getClassNames() {
+        Set<String> names = Sets.newTreeSet();
+        for (ClassIndex index : completeIndexes()) {
+            names.addAll(index.entries.keySet());
+        }
+        return names;
+    }
+
+    private static String join(Collection<String> values) {
+        return values.isEmpty() ? EMPTY : StringUtils.join(values, ',');
+    }
+
+    private static Set<String> split(String value) {
+        return EMPTY.equals(value) ? ImmutableSet.of() : ImmutableSet.copyOf(StringUtils.split(value, ','));
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(file)) return;
+        try {
+            loadedTime = Files.getLastModifiedTime(file).toMillis();
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] parts = StringUtils.split(line, ' ');
+                if (parts.length != 4) continue;
+                entries.put(parts[0], new Entry(
+                        EMPTY.equals(parts[1]) ? null : parts[1],
+                        split(parts[2]),
+                        split(parts[3])
+                ));
+            }
+            logger.trace("loaded class index {}, {} classes", file, entries.size());
+        } catch (IOException e) {
+            logger.warn("read class index " + file + " error", e);
+            entries.clear();
+        }
+    }
+
+    /**
+     * 保存到文件，先写临时文件再原子替换
+     */
+    public synchronized void save() {
+        List<String> lines = Lists.newArrayList();
+        new TreeMap<>(entries).forEach((name, entry) -> lines.add(name + ' '
+                + (entry.superName == null ? EMPTY : entry.superName) + ' '
+                + join(entry.interfaces) + ' '
+                + join(entry.annotations)));
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            SharedEnhancedCache.writeSynced(temp, (String.join("\n", lines) + '\n').getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("write class index " + file + " error", e);
+        }
+    }
+
+    /**
+     * @return 是否已扫描过输出目录，之后的变化随增强更新
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * 扫描输出目录，读取索引中没有或在索引保存后修改过的 class 文件，并删除 class 文件已不存在的类
+     */
+    public void scan() {
+        if (complete) return;
+        synchronized (scanLock) {
+            if (complete) return;
+            Set<String> found = Sets.newHashSet();
+            boolean changed = false;
+            if (Files.isDirectory(outputDirectory)) {
+                List<Path> classFiles;
+                try (Stream<Path> stream = Files.walk(outputDirectory)) {
+                    classFiles = stream.filter(path -> path.toString().endsWith(JavaSource.CLASS_EXTENSION))
+                            .collect(Collectors.toList());
+                } catch (IOException | UncheckedIOException e) {
+                    logger.warn("scan class index " + outputDirectory + " error", e);
+                    return;
+                }
+                for (Path classFile : classFiles) {
+                    String path = outputDirectory.relativize(classFile).toString();
+                    String name = path.substring(0, path.length() - JavaSource.CLASS_EXTENSION.length())
+                            .replace(classFile.getFileSystem().getSeparator(), ".");
+                    found.add(name);
+                    try {
+                        if (entries.containsKey(name) && Files.getLastModifiedTime(classFile).toMillis() <= loadedTime) {
+                            continue;
+                        }
+                        ClassHeader header;
+                        try (InputStream in = Files.newInputStream(classFile)) {
+                            header = ClassHeader.read(in);
+                        }
+                        changed |= put(header);
+                    } catch (IOException e) {
+                        logger.trace("read class header {} error", classFile, e);
+                    }
+                }
+            }
+            // 扫描期间新编译的类不在扫描结果中，删除前再确认一次文件
+            changed |= entries.keySet().removeIf(name -> !found.contains(name)
+                    && !Files.exists(outputDirectory.resolve(JavaSource.getClassFileName(name))));
+            complete = true;
+            if (changed) save();
+            logger.trace("scanned class index {}, {} classes", file, entries.size());
+        }
+    }
+
+    public boolean contains(String className) {
+        return entries.containsKey(className);
+    }
+
+    /**
+     * 记录一个类，有变化时在后台保存
+     *
+     * @param header class header
+     */
+    public void update(ClassHeader header) {
+        if (put(header)) {
+            WriteBehind.submit(this, this::save);
+        }
+    }
+
+    /**
+     * @return 是否有变化
+     */
+    private boolean put(ClassHeader header) {
+        if (header == null || header.getClassName() == null || header.isPackageInfo()) return false;
+        Set<String> annotations = Sets.newTreeSet(header.getAnnotations());
+        // 从缓存读取的字节码带有增强标记，不记录
+        annotations.remove(ENHANCED);
+        Entry entry = new Entry(header.getSuperName(),
+                header.getInterfaces() == null ? ImmutableSet.of() : ImmutableSet.copyOf(header.getInterfaces()),
+                ImmutableSet.copyOf(annotations));
+        Entry old = entries.put(header.getClassName(), entry);
+        return !entry.equals(old);
+    }
+
+    public void remove(String className) {
+        if (entries.remove(className) != null) {
+            WriteBehind.submit(this, this::save);
+        }
+    }
+
+    public Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    public static class Entry {
+        private final String superName;
+        private final Set<String> interfaces;
+        private final Set<String> annotations;
+
+        Entry(String superName, Set<String> interfaces, Set<String> annotations) {
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.annotations = annotations;
+        }
+
+        boolean isSubtypeOfAny(Set<String> types) {
+            if (superName != null && types.contains(superName)) return true;
+            for (String i : interfaces) {
+                if (types.contains(i)) return true;
+            }
+            return false;
+        }
+
+        public String getSuperName() {
+            return superName;
+        }
+
+        public Set<String> getInterfaces() {
+            return interfaces;
+        }
+
+        public Set<String> getAnnotations() {
+            return annotations;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry)) return false;
+            Entry entry = (Entry) o;
+            return StringUtils.equals(superName, entry.superName)
+                    && interfaces.equals(entry.interfaces)
+                    && annotations.equals(entry.annotations);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (superName == null ? 0 : superName.hashCode()) + interfaces.hashCode())
+                    + annotations.hashCode();
+        }
+    }
+}
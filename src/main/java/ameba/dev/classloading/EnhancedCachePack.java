@@ -0,0 +1,533 @@
+package ameba.dev.classloading;
+
+import ameba.dev.info.ProjectInfo;
+import ameba.exception.UnexpectedException;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiPredicate;
+
+/**
+ * 增强后字节码的缓存包
+ * <p>
+ * 每个模块一个只追加的文件 {@code generated-classes/ameba/enhanced-cache.pack}，启动时扫描建立索引，
+ * 查找只需一次索引查询加一次按位置读取；写入先放在内存中，按批追加到文件末尾，已有记录的位置不变。
+ * 同一个类的新记录覆盖旧记录，记录中的签名与当前字节码不符时视为不存在
+ * <p>
+ * 文件不做内存映射，整理时可以先关闭再替换；多个进程共用同一个缓存包时，打开、追加和整理都在
+ * {@code enhanced-cache.pack.lock} 的文件锁内进行，锁文件中保存缓存包的代数，其他进程整理后重新扫描
+ * <p>
+ * 记录格式：magic(int) timestamp(long) nameLength(short) name signatureLength(short) signature
+ * fingerprintLength(short) fingerprint dataLength(int) data，fingerprint 为原始字节码的语义指纹，没有时长度为 0
+ *
+ * @author icode
+ */
+public class EnhancedCachePack {
+    public static final String PACK_FILE = "../generated-classes/ameba/enhanced-cache.pack";
+    private static final Logger logger = LoggerFactory.getLogger(EnhancedCachePack.class);
+    private static final int RECORD_MAGIC = 0x414D4244;
+    private static final int BATCH_SIZE = Integer.getInteger("ameba.dev.enhancedCache.batch", 64);
+    private static final Map<Path, EnhancedCachePack> PACKS = Maps.newConcurrentMap();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            WriteBehind.drain();
+            for (EnhancedCachePack pack : PACKS.values()) {
+                try {
+                    pack.flush();
+                } finally {
+                    pack.close();
+                }
+            }
+        }));
+    }
+
+    private final File file;
+    private final File lockFile;
+    private final Map<String, Entry> index = Maps.newConcurrentMap();
+    private final Map<String, Entry> pending = Maps.newLinkedHashMap();
+    /**
+     * 按位置读取与关闭、重新打开文件互斥，追加写入不影响已有记录
+     */
+    private final ReadWriteLock channelLock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private Object epoch = new Object();
+    private long generation = -1;
+    private volatile long size;
+
+    EnhancedCachePack(File file) {
+        this.file = file;
+        this.lockFile = new File(file.getPath() + ".lock");
+        open();
+    }
+
+    public static EnhancedCachePack get(ProjectInfo info) {
+        Path path = info.getOutputDirectory().resolve(PACK_FILE).normalize();
+        return PACKS.computeIfAbsent(path, p -> new EnhancedCachePack(p.toFile()));
+    }
+
+    public static Collection<EnhancedCachePack> getPacks() {
+        return Collections.unmodifiableCollection(PACKS.values());
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static long headerSize(byte[] name, byte[] signature, byte[] fingerprint) {
+        return 4 + 8 + 2 + name.length + 2 + signature.length + 2 + fingerprint.length + 4;
+    }
+
+    private static long recordSize(String name, Entry entry) {
+        return headerSize(utf8(name), utf8(entry.signature), utf8(entry.getFingerprintString())) + entry.length;
+    }
+
+    /**
+     * 在进程间的文件锁内执行
+     */
+    private <T> T locked(LockedAction<T> action) throws IOException {
+        FileUtils.forceMkdir(lockFile.getParentFile());
+        try (FileChannel lock = FileChannel.open(lockFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock fileLock = lock.lock();
+            try {
+                // 锁文件中保存缓存包的代数，新建时为 0
+                ByteBuffer buffer = ByteBuffer.allocate(8);
+                long current = 0;
+                if (lock.read(buffer, 0) == 8) {
+                    buffer.flip();
+                    current = buffer.getLong();
+                }
+                return action.run(lock, current);
+            } finally {
+                fileLock.release();
+            }
+        }
+    }
+
+    /**
+     * 扫描已有的文件建立索引，文件末尾不完整的记录被截断
+     */
+    private synchronized void open() {
+        if (!file.isFile()) return;
+        try {
+            locked((lock, current) -> {
+                load(current, false);
+                return null;
+            });
+            logger.trace("loaded enhanced cache pack {}, {} entries", file, index.size());
+        } catch (IOException e) {
+            // 不删除文件，其他进程可能正在使用，之后写入时重试
+            logger.warn("can not open enhanced cache pack " + file, e);
+        }
+    }
+
+    /**
+     * 重新打开文件并扫描，保留还未写入文件的记录；调用方持有文件锁
+     */
+    private void load(long current, boolean create) throws IOException {
+        channelLock.writeLock().lock();
+        try {
+            closeChannel();
+            index.values().removeIf(entry -> entry.bytes == null);
+            epoch = new Object();
+            generation = current;
+            size = 0;
+            if (!create && !file.isFile()) return;
+            FileUtils.forceMkdir(file.getParentFile());
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long end = channel.size();
+            long valid = scan(end);
+            if (valid < end) {
+                logger.warn("enhanced cache pack {} is broken at {}", file, valid);
+                channel.truncate(valid);
+            }
+            size = valid;
+        } finally {
+            channelLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return 最后一条完整记录的结束位置
+     */
+    private long scan(long end) throws IOException {
+        long position = 0;
+        // 不关闭流，关闭会同时关闭 channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(0)), 64 * 1024));
+        try {
+            while (position < end) {
+                if (in.readInt() != RECORD_MAGIC) break;
+                long timestamp = in.readLong();
+                String name = readString(in);
+                String signature = readString(in);
+                String fingerprint = readString(in);
+                int length = in.readInt();
+                long data = position + headerSize(utf8(name), utf8(signature), utf8(fingerprint));
+                if (length < 0 || data + length > end) break;
+                IOUtils.skipFully(in, length);
+                Entry exists = index.get(name);
+                if (exists == null || exists.bytes == null) {
+                    index.put(name, new Entry(signature, fingerprint.isEmpty() ? null : fingerprint,
+                            timestamp, length, epoch, data));
+                }
+                position = data + length;
+            }
+        } catch (EOFException e) {
+            // 最后一条记录不完整
+        }
+        return position;
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("close enhanced cache pack {} error", file, e);
+            }
+        }
+        channel = null;
+    }
+
+    /**
+     * 关闭文件，之后的读取返回 null
+     */
+    public synchronized void close() {
+        channelLock.writeLock().lock();
+        try {
+            closeChannel();
+            epoch = new Object();
+        } finally {
+            channelLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param className class name
+     * @param signature 当前字节码的签名
+     * @return 缓存的记录，没有或签名不符时返回 null
+     */
+    public Entry getEntry(String className, String signature) {
+        if (className == null || signature == null) return null;
+        Entry entry = index.get(className);
+        return entry != null && entry.signature.equals(signature) ? entry : null;
+    }
+
+    public byte[] get(String className, String signature) {
+        Entry entry = getEntry(className, signature);
+        return entry == null ? null : read(entry);
+    }
+
+    /**
+     * 读取记录的数据
+     *
+     * @param entry entry
+     * @return byte code，文件已被替换或读取失败时返回 null
+     */
+    public byte[] read(Entry entry) {
+        byte[] bytes = entry.bytes;
+        if (bytes != null) return bytes;
+        channelLock.readLock().lock();
+        try {
+            if (channel == null || entry.epoch != epoch) return null;
+            ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, entry.offset + buffer.position()) < 0) {
+                    throw new EOFException("unexpected end of " + file);
+                }
+            }
+            return buffer.array();
+        } catch (IOException e) {
+            logger.warn("read enhanced cache pack " + file + " error", e);
+            return null;
+        } finally {
+            channelLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 写入缓存，立即对读取可见，之后在后台线程批量追加到文件，积累到一批时立即开始写入
+     *
+     * @param className   class name
+     * @param signature   signature
+     * @param fingerprint 原始字节码的语义指纹，可以为 null
+     * @param bytes       enhanced byte code
+     * @return entry
+     */
+    public Entry put(String className, String signature, String fingerprint, byte[] bytes) {
+        Entry entry = new Entry(signature, fingerprint, System.currentTimeMillis(), bytes);
+        index.put(className, entry);
+        boolean full;
+        synchronized (pending) {
+            pending.put(className, entry);
+            full = pending.size() >= BATCH_SIZE;
+        }
+        WriteBehind.submit(this, this::flush, full);
+        return entry;
+    }
+
+    public void remove(String className) {
+        index.remove(className);
+        synchronized (pending) {
+            pending.remove(className);
+        }
+    }
+
+    public Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(index);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return 已写入文件的大小
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * 把待写入的记录追加到文件末尾并同步到磁盘，之后从文件读取这些记录
+     */
+    public synchronized void flush() {
+        Map<String, Entry> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) return;
+            batch = Maps.newLinkedHashMap(pending);
+            pending.clear();
+        }
+        try {
+            locked((lock, current) -> {
+                if (channel == null || current != generation) {
+                    // 第一次写入，或者其他进程整理过缓存包
+                    load(current, true);
+                }
+                append(batch);
+                return null;
+            });
+            logger.trace("flushed {} entries to enhanced cache pack {}", batch.size(), file);
+        } catch (IOException e) {
+            // 放回待写入的记录，下次写入时重试
+            synchronized (pending) {
+                batch.forEach(pending::putIfAbsent);
+            }
+            throw new UnexpectedException("write enhanced cache pack error", e);
+        }
+    }
+
+    /**
+     * 追加记录，其他进程也可能追加过，总是写在文件当前的末尾
+     */
+    private void append(Map<String, Entry> batch) throws IOException {
+        long position = channel.size();
+        Map<Entry, Long> offsets = Maps.newIdentityHashMap();
+        for (Map.Entry<String, Entry> e : batch.entrySet()) {
+            Entry entry = e.getValue();
+            byte[] data = entry.bytes;
+            if (data == null) continue;
+            position = writeRecord(channel, position, e.getKey(), entry, ByteBuffer.wrap(data));
+            offsets.put(entry, position - data.length);
+        }
+        channel.force(false);
+        // 写入磁盘后才改为从文件读取
+        for (Map.Entry<Entry, Long> e : offsets.entrySet()) {
+            e.getKey().moveTo(epoch, e.getValue());
+        }
+        size = position;
+    }
+
+    /**
+     * @return 记录的结束位置
+     */
+    private long writeRecord(FileChannel out, long position, String name, Entry entry, ByteBuffer data) throws IOException {
+        byte[] nameBytes = utf8(name);
+        byte[] signature = utf8(entry.signature);
+        byte[] fingerprint = utf8(entry.getFingerprintString());
+        ByteBuffer header = ByteBuffer.allocate((int) headerSize(nameBytes, signature, fingerprint));
+        header.putInt(RECORD_MAGIC)
+                .putLong(entry.timestamp)
+                .putShort((short) nameBytes.length).put(nameBytes)
+                .putShort((short) signature.length).put(signature)
+                .putShort((short) fingerprint.length).put(fingerprint)
+                .putInt(entry.length)
+                .flip();
+        writeFully(out, header, position);
+        position += header.limit();
+        writeFully(out, data, position);
+        return position + entry.length;
+    }
+
+    /**
+     * 重写缓存包，只保留仍然有效的最新记录；超出大小上限时先丢弃最早写入的记录
+     *
+     * @param live    判断 class name 和 signature 对应的记录是否仍然有效
+     * @param maxSize 缓存包的大小上限
+     * @return 回收的字节数
+     */
+    public synchronized long compact(BiPredicate<String, String> live, long maxSize) {
+        flush();
+        if (!file.isFile()) return 0;
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            return locked((lock, current) -> {
+                if (channel == null || current != generation) {
+                    load(current, false);
+                }
+                List<Map.Entry<String, Entry>> entries = Lists.newArrayList();
+                for (Map.Entry<String, Entry> e : index.entrySet()) {
+                    if (e.getValue().bytes == null) entries.add(e);
+                }
+                entries.sort(Comparator.comparingLong((Map.Entry<String, Entry> e) -> e.getValue().timestamp).reversed());
+                List<Map.Entry<String, Entry>> kept = Lists.newArrayList();
+                long keptSize = 0;
+                for (Map.Entry<String, Entry> e : entries) {
+                    long recordSize = recordSize(e.getKey(), e.getValue());
+                    if (keptSize + recordSize <= maxSize && live.test(e.getKey(), e.getValue().signature)) {
+                        kept.add(e);
+                        keptSize += recordSize;
+                    }
+                }
+                long fileSize = channel.size();
+                if (keptSize >= fileSize) return 0L;
+                try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    long position = 0;
+                    for (Map.Entry<String, Entry> e : kept) {
+                        byte[] data = read(e.getValue());
+                        if (data == null) continue;
+                        position = writeRecord(out, position, e.getKey(), e.getValue(), ByteBuffer.wrap(data));
+                    }
+                    out.force(false);
+                }
+                // 先关闭再替换，打开中的文件在 Windows 下不能被替换
+                channelLock.writeLock().lock();
+                try {
+                    closeChannel();
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    ByteBuffer next = ByteBuffer.allocate(8).putLong(current + 1);
+                    next.flip();
+                    writeFully(lock, next, 0);
+                    lock.force(false);
+                    load(current + 1, false);
+                } finally {
+                    channelLock.writeLock().unlock();
+                }
+                logger.debug("compacted enhanced cache pack {}, {} entries kept, {} bytes reclaimed",
+                        file, kept.size(), fileSize - size);
+                return fileSize - size;
+            });
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(temp);
+            logger.warn("compact enhanced cache pack " + file + " error", e);
+            if (channel == null) {
+                // 替换失败时原文件不变，重新打开
+                open();
+            }
+            return 0;
+        }
+    }
+
+    private interface LockedAction<T> {
+        T run(FileChannel lock, long generation) throws IOException;
+    }
+
+    public static class Entry {
+        private final String signature;
+        private final String fingerprint;
+        private final long timestamp;
+        private final int length;
+        private volatile Object epoch;
+        private volatile long offset;
+        private volatile byte[] bytes;
+
+        Entry(String signature, String fingerprint, long timestamp, byte[] bytes) {
+            this.signature = signature;
+            this.fingerprint = fingerprint;
+            this.timestamp = timestamp;
+            this.length = bytes.length;
+            this.offset = -1;
+            this.bytes = bytes;
+        }
+
+        Entry(String signature, String fingerprint, long timestamp, int length, Object epoch, long offset) {
+            this.signature = signature;
+            this.fingerprint = fingerprint;
+            this.timestamp = timestamp;
+            this.length = length;
+            this.epoch = epoch;
+            this.offset = offset;
+        }
+
+        /**
+         * 记录已写入文件，改为从文件读取
+         */
+        void moveTo(Object epoch, long offset) {
+            this.epoch = epoch;
+            this.offset = offset;
+            this.bytes = null;
+        }
+
+        public String getSignature() {
+            return signature;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        private String getFingerprintString() {
+            return fingerprint == null ? "" : fingerprint;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+}
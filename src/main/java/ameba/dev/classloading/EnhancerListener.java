@@ -6,13 +6,11 @@ import ameba.dev.classloading.enhancers.Enhancer;
 import ameba.dev.classloading.enhancers.EnhancingException;
 import ameba.event.Listener;
 import javassist.CannotCompileException;
-import javassist.ClassPool;
 import javassist.CtClass;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 
@@ -37,51 +35,70 @@ public class EnhancerListener implements Listener<EnhanceClassEvent> {
     public void onReceive(EnhanceClassEvent event) {
         ClassDescription desc = event.getClassDescription();
         if (desc == null) return;
-        ClassPool classPool = Enhancer.getClassPool();
-        CtClass clazz;
+        // 增强器在草稿上工作，全部完成后一次发布
+        ClassDraft draft = desc.draft();
+        ClassHeader header;
         try {
-            clazz = classPool.makeClass(desc.getEnhancedByteCodeStream());
+            header = ClassHeader.read(draft.getEnhancedByteCodeStream());
         } catch (IOException e) {
             throw new EnhancingException(e);
         }
-        if (clazz.hasAnnotation(Enhanced.class)
-                || clazz.isInterface()
-                || clazz.getName().endsWith(".package")
-                || clazz.getName().startsWith("jdk.")
-                || clazz.getName().startsWith("java.")
-                || clazz.getName().startsWith("javax.")
-                || clazz.isEnum()
-                || clazz.isPrimitive()
-                || clazz.isAnnotation()
-                || clazz.isArray()) {
+        ClassHierarchy.update(header);
+        if (desc.projectInfo != null) {
+            ClassIndex.get(desc.projectInfo).update(header);
+        }
+        if (header.isEnhanced()
+                || header.isInterface()
+                || header.isPackageInfo()
+                || header.getClassName().startsWith("jdk.")
+                || header.getClassName().startsWith("java.")
+                || header.getClassName().startsWith("javax.")
+                || header.isEnum()
+                || header.isAnnotation()) {
+            // 不需要增强的类，增强结果就是原始字节码；已有增强结果（如从缓存读取的）时保留
+            if (!draft.hasEnhancedByteCode()) {
+                draft.setEnhancedByteCode(draft.getClassByteCode());
+            }
+            publish(desc, draft);
             return;
         }
         logger.trace(sp);
         int i = 0;
         for (Enhancer enhancer : Enhancing.getEnhancers()) {
-            enhance(enhancer, desc);
+            enhance(enhancer, draft);
             if (getValue(properties, "ameba.module.dev.debug", false, null)) {
                 try {
-                    FileUtils.writeByteArrayToFile(new File(desc.getEnhancedClassFile().getPath() + "." + i),
-                            desc.enhancedByteCode == null ? desc.classByteCode : desc.enhancedByteCode, false);
+                    byte[] bytes = draft.getEnhancedByteCode();
+                    FileUtils.writeByteArrayToFile(ClassCache.getDebugFile(draft, i),
+                            bytes != null ? bytes : draft.getClassByteCode(), false);
                 } catch (IOException e) {
                     //noop
                 }
                 i++;
             }
         }
+        CtClass clazz;
         try {
-            clazz = Enhancer.makeClass(desc);
+            clazz = Enhancer.makeClass(draft);
             Enhancer.addAnnotation(Enhancer.getAnnotations(clazz), Enhanced.class);
-            desc.enhancedByteCode = clazz.toBytecode();
+            draft.setEnhancedByteCode(clazz.toBytecode());
+            clazz.defrost();
         } catch (IOException | CannotCompileException e) {
+            // 只完成了一部分的增强结果不发布，保留之前的版本
             logger.error("enhance err", e);
+            return;
         }
-        clazz.defrost();
+        publish(desc, draft);
         logger.trace(sp);
     }
 
-    private void enhance(Enhancer enhancer, ClassDescription desc) {
+    private void publish(ClassDescription desc, ClassDraft draft) {
+        if (!desc.publish(draft)) {
+            logger.debug("{} changed while enhancing, drop the enhanced result", desc.className);
+        }
+    }
+
+    private void enhance(Enhancer enhancer, ClassDraft desc) {
         try {
             long start = System.currentTimeMillis();
             enhancer.enhance(desc);
@@ -8,7 +8,10 @@ import ameba.exception.AmebaException;
 import ameba.exception.UnexpectedException;
 import ameba.util.IOUtils;
 import ameba.util.UrlExternalFormComparator;
+import com.google.common.collect.Lists;
 import org.apache.commons.lang3.ArrayUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
@@ -24,9 +27,14 @@ import java.security.CodeSource;
 import java.security.Permissions;
 import java.security.ProtectionDomain;
 import java.security.cert.Certificate;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 /**
  * @author icode
@@ -34,6 +42,17 @@ import java.util.TreeSet;
 public class ReloadClassLoader extends URLClassLoader {
 
     private static final Set<URL> urls = new TreeSet<>(new UrlExternalFormComparator());
+    private static final Logger logger = LoggerFactory.getLogger(ReloadClassLoader.class);
+    /**
+     * 创建后并行读取增强缓存包中的类，{@code ameba.dev.warmUp=false} 关闭
+     */
+    private static final boolean WARM_UP = !"false".equals(System.getProperty("ameba.dev.warmUp"));
+    /**
+     * 读取后按继承顺序预先定义这些类
+     */
+    private static final boolean WARM_UP_DEFINE = Boolean.getBoolean("ameba.dev.warmUp.define");
+    private static final int WARM_UP_THREADS = Integer.getInteger("ameba.dev.warmUp.threads",
+            Runtime.getRuntime().availableProcessors());
     public ProtectionDomain protectionDomain;
     private ClassCache classCache;
 
@@ -73,6 +92,72 @@ public class ReloadClassLoader extends URLClassLoader {
         }
     }
 
+    /**
+     * 并行读取增强缓存包中记录的类，避免容器启动时在加载线程上逐个读取
+     * <p>
+     * 在类加载器创建并设为上下文类加载器后调用；容器重新加载后类描述仍保留在静态缓存中，只读取增强结果不在内存中的类
+     */
+    public void warmUp() {
+        if (!WARM_UP || classCache == null) return;
+        List<String> names = Lists.newArrayList();
+        classCache.getProjectInfo().forEach(info -> {
+            names.addAll(EnhancedCachePack.get(info).getEntries().keySet());
+            return true;
+        });
+        if (names.isEmpty()) return;
+        long start = System.currentTimeMillis();
+        List<String> absent = names.stream().filter(name -> {
+            ClassDescription desc = ClassCache.lookup(name);
+            return desc == null || desc.getSnapshot().enhancedByteCode() == null;
+        }).collect(Collectors.toList());
+        int prefetched = 0;
+        if (!absent.isEmpty()) {
+            ForkJoinPool pool = new ForkJoinPool(WARM_UP_THREADS);
+            try {
+                prefetched = pool.submit(() -> (int) absent.parallelStream()
+                        .filter(this::prefetch)
+                        .count()).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                logger.warn("warm up class cache error", e.getCause());
+                return;
+            } finally {
+                pool.shutdown();
+            }
+        }
+        if (WARM_UP_DEFINE) {
+            // 父类型的父类型集合一定比子类型小，按大小排序即可先定义父类型
+            names.sort(Comparator.comparingInt(name -> ClassHierarchy.getSupertypes(name).size()));
+            for (String name : names) {
+                ClassDescription desc = ClassCache.lookup(name);
+                if (desc == null || !desc.hasEnhancedByteCode()) continue;
+                try {
+                    loadClass(name);
+                } catch (ClassNotFoundException | LinkageError e) {
+                    logger.trace("pre define class {} error", name, e);
+                }
+            }
+        }
+        logger.debug("warm up {} of {} classes in {}ms", prefetched, names.size(), System.currentTimeMillis() - start);
+    }
+
+    private boolean prefetch(String name) {
+        try {
+            ClassDescription desc = classCache.get(name);
+            byte[] bytecode = desc == null ? null : desc.getEnhancedByteCode();
+            if (bytecode == null) return false;
+            if (WARM_UP_DEFINE) {
+                ClassHierarchy.update(ClassHeader.read(bytecode));
+            }
+            return true;
+        } catch (Exception e) {
+            logger.trace("prefetch class {} error", name, e);
+            return false;
+        }
+    }
+
     /**
      * Add the location of a directory containing class files
      *
@@ -152,11 +237,12 @@ public class ReloadClassLoader extends URLClassLoader {
     public Class<?> findClassFromCache(String name) {
         if (isAppClass(name)) {
             ClassDescription desc = classCache.get(name);
-            if (desc != null && desc.enhancedByteCode != null) {
+            byte[] bytecode = desc == null ? null : desc.getEnhancedByteCode();
+            if (bytecode != null) {
                 return defineClass(desc.className,
-                        desc.enhancedByteCode,
+                        bytecode,
                         0,
-                        desc.enhancedByteCode.length,
+                        bytecode.length,
                         protectionDomain);
             }
         }
@@ -246,7 +332,7 @@ public class ReloadClassLoader extends URLClassLoader {
         if (c != null) {
             return c;
         }
-        bytecode = desc.enhancedByteCode == null ? desc.classByteCode : desc.enhancedByteCode;
+        bytecode = ClassBytes.get(desc);
         return defineClass(desc.className, bytecode, 0, bytecode.length, protectionDomain);
     }
 
@@ -270,8 +356,8 @@ public class ReloadClassLoader extends URLClassLoader {
         ClassDescription desc = classCache.get(name);
         if (desc == null) return null;
 
-        if (desc.enhancedByteCode == null) {
-            desc.classByteCode = bytecode;
+        if (!desc.hasEnhancedByteCode()) {
+            desc.setClassByteCode(bytecode);
             enhanceClass(desc);
             classCache.writeCache(desc);
         }
@@ -281,7 +367,9 @@ public class ReloadClassLoader extends URLClassLoader {
     protected void enhanceClass(ClassDescription desc) {
         desc.destroyEnhanced();
         desc.refresh();
-        Addon.publishEvent(new EnhanceClassEvent(desc));
+        if (!classCache.loadShared(desc)) {
+            Addon.publishEvent(new EnhanceClassEvent(desc));
+        }
     }
 
     public void detectChanges(Set<ClassDefinition> classes) throws UnmodifiableClassException, ClassNotFoundException {
@@ -8,7 +8,6 @@ import javassist.NotFoundException;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.MalformedURLException;
 import java.net.URL;
 
 /**
@@ -40,8 +39,8 @@ public class ReloadClassPath extends LoaderClassPath {
         ClassDescription desc = getClassDesc(classname);
         if (desc != null) {
             preLoadClass(classname, desc);
-            if (hasEnhancedClassFile(desc)) {
-                return desc.getEnhancedByteCodeStream();
+            if (hasEnhancedByteCode(desc)) {
+                return ClassBytes.getInputStream(desc);
             }
         }
         return super.openClassfile(classname);
@@ -52,38 +51,33 @@ public class ReloadClassPath extends LoaderClassPath {
         ClassDescription desc = getClassDesc(classname);
         if (desc != null) {
             preLoadClass(classname, desc);
-            if (hasEnhancedClassFile(desc)) {
-                try {
-                    return desc.getEnhancedClassFile().toURI().toURL();
-                } catch (MalformedURLException e) {
-                    return super.find(classname);
-                }
+            if (hasEnhancedByteCode(desc)) {
+                return ClassBytes.getURL(desc);
             }
         }
         return super.find(classname);
     }
 
-    protected boolean hasEnhancedClassFile(ClassDescription desc) {
-        return desc != null
-                && desc.getEnhancedClassFile() != null
-                && desc.getEnhancedClassFile().exists();
+    protected boolean hasEnhancedByteCode(ClassDescription desc) {
+        return desc != null && desc.hasEnhancedByteCode();
     }
 
     public void preLoadClass(String classname, ClassDescription desc) {
-        if (!hasEnhancedClassFile(desc)) {
+        if (!hasEnhancedByteCode(desc)) {
             ClassLoader cl = ClassUtils.getContextClassLoader();
             if (cl instanceof ReloadClassLoader) {
                 ReloadClassLoader classLoader = (ReloadClassLoader) cl;
-                final URL url = classLoader.getResource(JavaSource.getClassFileName(classname));
-                if (url != null) {
-                    byte[] code;
+                byte[] code = desc.getClassByteCode();
+                if (code == null) {
+                    final URL url = classLoader.getResource(JavaSource.getClassFileName(classname));
+                    if (url == null) return;
                     try {
                         code = IOUtils.toByteArray(url);
                     } catch (IOException e) {
                         return;
                     }
-                    classLoader.enhanceClass(classname, code);
                 }
+                classLoader.enhanceClass(classname, code);
             }
         }
     }
@@ -0,0 +1,206 @@
+package ameba.dev.classloading;
+
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 多个工作目录、CI 共用的增强结果缓存
+ * <p>
+ * 通过 {@code -Dameba.dev.sharedCache=<dir>} 开启，以增强器签名和原始字节码的 sha256 为 key，
+ * 文件为 {@code <dir>/<key 前两位>/<key>.class}。写入时先取得 key 对应的文件锁，
+ * 写到临时文件后原子移动到目标位置，读取不需要加锁；另一个进程正在写入同一个 key 时直接跳过。
+ * 增强时生成的类（如属性访问器）以所属类的 key 保存在 {@code <key>.generated} 中，先于所属类写入，与所属类一起读取
+ *
+ * @author icode
+ */
+public class SharedEnhancedCache {
+    private static final Logger logger = LoggerFactory.getLogger(SharedEnhancedCache.class);
+    private static final SharedEnhancedCache INSTANCE;
+
+    static {
+        String dir = System.getProperty("ameba.dev.sharedCache");
+        INSTANCE = StringUtils.isBlank(dir) ? null : new SharedEnhancedCache(Paths.get(dir));
+    }
+
+    private final Path directory;
+
+    SharedEnhancedCache(Path directory) {
+        this.directory = directory.toAbsolutePath().normalize();
+        logger.debug("shared enhanced class cache {}", this.directory);
+    }
+
+    /**
+     * @return 共享缓存，没有配置时返回 null
+     */
+    public static SharedEnhancedCache get() {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return INSTANCE != null;
+    }
+
+    /**
+     * @param enhancerSignature 增强器签名
+     * @param classByteCode     原始字节码
+     * @return key
+     */
+    public static String key(String enhancerSignature, byte[] classByteCode) {
+        return Hashing.sha256().newHasher()
+                .putUnencodedChars(enhancerSignature)
+                .putChar('.')
+                .putBytes(classByteCode)
+                .hash().toString();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private Path path(String key, String extension) {
+        return directory.resolve(key.substring(0, 2)).resolve(key.concat(extension));
+    }
+
+    /**
+     * @param key key
+     * @return 增强后的字节码，没有时返回 null
+     */
+    public byte[] read(String key) {
+        Path file = path(key, ".class");
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            logger.debug("read shared enhanced class cache {} error", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * 读取与 key 对应的类一起写入的生成类，应在 {@link #read(String)} 读到之后调用
+     *
+     * @param key 所属类的 key
+     * @return 类名到字节码，没有生成类时为空，读取失败时返回 null
+     */
+    public Map<String, byte[]> readGenerated(String key) {
+        Path file = path(key, ".generated");
+        Map<String, byte[]> generated = Maps.newLinkedHashMap();
+        if (!Files.isRegularFile(file)) return generated;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                byte[] bytecode = new byte[in.readInt()];
+                in.readFully(bytecode);
+                generated.put(name, bytecode);
+            }
+            return generated;
+        } catch (IOException e) {
+            logger.debug("read shared generated classes {} error", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * 写入增强后的字节码，已存在或其他进程正在写入时跳过
+     *
+     * @param key      key
+     * @param bytecode enhanced byte code
+     */
+    public void write(String key, byte[] bytecode) {
+        write(key, bytecode, Collections.emptyMap());
+    }
+
+    /**
+     * 写入增强后的字节码和增强时生成的类，已存在或其他进程正在写入时跳过
+     *
+     * @param key       key
+     * @param bytecode  enhanced byte code
+     * @param generated 生成的类名到字节码
+     */
+    public void write(String key, byte[] bytecode, Map<String, byte[]> generated) {
+        Path file = path(key, ".class");
+        if (Files.exists(file)) return;
+        Path lockFile = path(key, ".lock");
+        try {
+            Files.createDirectories(file.getParent());
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = channel.tryLock()) {
+                if (lock == null) return;
+                try {
+                    if (Files.exists(file)) return;
+                    // 所属类可以读到时生成的类已经写入
+                    if (!generated.isEmpty()) {
+                        moveSynced(key, path(key, ".generated"), encode(generated));
+                    }
+                    moveSynced(key, file, bytecode);
+                } finally {
+                    // 只有持有锁的进程删除锁文件
+                    Files.deleteIfExists(lockFile);
+                }
+            }
+        } catch (OverlappingFileLockException e) {
+            // 本进程的其他线程正在写入
+        } catch (IOException e) {
+            logger.debug("write shared enhanced class cache {} error", file, e);
+        }
+    }
+
+    private void moveSynced(String key, Path file, byte[] bytes) throws IOException {
+        Path temp = path(key, "." + UUID.randomUUID() + ".tmp");
+        try {
+            writeSynced(temp, bytes);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static byte[] encode(Map<String, byte[]> generated) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(generated.size());
+            for (Map.Entry<String, byte[]> entry : generated.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 写入并落盘后再原子移动，避免掉电后留下空的缓存文件
+     */
+    static void writeSynced(Path file, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ameba.dev.classloading;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存文件的后台写入队列
+ * <p>
+ * 任务按 key 合并，同一个 key 执行前只保留最后提交的任务；提交后等待一小段时间，
+ * 在后台线程按提交顺序一次执行这段时间内积累的所有任务
+ *
+ * @author icode
+ */
+final class WriteBehind {
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehind.class);
+    private static final long DELAY = Long.getLong("ameba.dev.writeBehind.delay", 200);
+    private static final Map<Object, Runnable> TASKS = Maps.newLinkedHashMap();
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ameba-write-behind");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static boolean scheduled;
+
+    private WriteBehind() {
+    }
+
+    static void submit(Object key, Runnable task) {
+        submit(key, task, false);
+    }
+
+    /**
+     * @param key   合并任务的 key
+     * @param task  task
+     * @param now   是否不再等待，立即开始执行
+     */
+    static void submit(Object key, Runnable task, boolean now) {
+        synchronized (TASKS) {
+            TASKS.put(key, task);
+            if (now) {
+                EXECUTOR.execute(WriteBehind::drain);
+            } else if (!scheduled) {
+                scheduled = true;
+                EXECUTOR.schedule(WriteBehind::drain, DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * 在当前线程执行所有等待中的任务
+     */
+    static void drain() {
+        List<Runnable> tasks;
+        synchronized (TASKS) {
+            scheduled = false;
+            if (TASKS.isEmpty()) return;
+            tasks = Lists.newArrayList(TASKS.values());
+            TASKS.clear();
+        }
+        for (Runnable task : tasks) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.warn("write behind task error", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ameba.dev.classloading.enhancers;
+
+import ameba.dev.cache.Cached;
+import ameba.dev.cache.MethodCache;
+import ameba.dev.cache.MethodCaches;
+import ameba.dev.classloading.ClassDraft;
+import javassist.*;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.ParameterAnnotationsAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+/**
+ * 增强 {@link Cached} 方法：原方法体移到私有方法中，原方法先查询 {@link MethodCache}，未命中时才调用
+ *
+ * @author icode
+ */
+public class CachedEnhancer extends Enhancer {
+    private static final Logger logger = LoggerFactory.getLogger(CachedEnhancer.class);
+    private static final String CACHE_FIELD_PREFIX = "__ameba_cache_";
+    private static final String IMPL_SUFFIX = "$$cached";
+    private static final String CACHE_TYPE = MethodCache.class.getName();
+
+    public CachedEnhancer(Map<String, Object> properties) {
+        super(properties);
+    }
+
+    /**
+     * 没有参数或只有一个基本类型参数的方法可以使用 long 键，实例方法在实例的子缓存中使用
+     */
+    private static String longKey(CtMethod method) throws NotFoundException {
+        CtClass[] types = method.getParameterTypes();
+        if (types.length > 1) return null;
+        if (types.length == 0) return "0L";
+        CtClass type = types[0];
+        if (type == CtClass.booleanType) return "($1 ? 1L : 0L)";
+        if (type == CtClass.floatType) return "((long) Float.floatToRawIntBits($1))";
+        if (type == CtClass.doubleType) return "Double.doubleToRawLongBits($1)";
+        if (type.isPrimitive()) return "((long) $1)";
+        return null;
+    }
+
+    @Override
+    public void enhance(ClassDraft description) throws Exception {
+        CtClass ctClass = makeClass(description);
+        int index = 0;
+        for (CtMethod method : ctClass.getDeclaredMethods()) {
+            if (!method.hasAnnotation(Cached.class)) continue;
+            int modifiers = method.getModifiers();
+            if (Modifier.isAbstract(modifiers) || Modifier.isNative(modifiers)
+                    || method.getReturnType() == CtClass.voidType) {
+                logger.warn("@Cached is ignored on abstract, native or void method {}.{}",
+                        ctClass.getName(), method.getName());
+                continue;
+            }
+            Cached cached = (Cached) method.getAnnotation(Cached.class);
+            String name = method.getName();
+            int n = index++;
+            String cacheField = CACHE_FIELD_PREFIX + name + "_" + n;
+
+            CtMethod impl = CtNewMethod.copy(method, name + IMPL_SUFFIX + n, ctClass, null);
+            impl.setModifiers(Modifier.PRIVATE | (modifiers & Modifier.STATIC));
+            // 注解保留在原方法上
+            MethodInfo implInfo = impl.getMethodInfo();
+            implInfo.removeAttribute(AnnotationsAttribute.visibleTag);
+            implInfo.removeAttribute(AnnotationsAttribute.invisibleTag);
+            implInfo.removeAttribute(ParameterAnnotationsAttribute.visibleTag);
+            implInfo.removeAttribute(ParameterAnnotationsAttribute.invisibleTag);
+            ctClass.addMethod(impl);
+
+            CtField field = new CtField(getClassPool().get(CACHE_TYPE), cacheField, ctClass);
+            field.setModifiers(Modifier.PRIVATE | Modifier.STATIC | Modifier.FINAL);
+            ctClass.addField(field, CtField.Initializer.byExpr(MethodCaches.class.getName() + ".register(\""
+                    + ctClass.getName() + "." + name + method.getSignature() + "\", "
+                    + cached.maxSize() + ", " + cached.ttl() + "L, \"" + cached.unit().name() + "\")"));
+
+            String key = longKey(method);
+            key = key == null ? "Object k = " + CACHE_TYPE + ".key($args);" : "long k = " + key + ";";
+            // 实例方法使用实例的子缓存，缓存不强引用实例
+            String cache = CACHE_TYPE + " c = " + (Modifier.isStatic(modifiers) ? cacheField : cacheField + ".of($0)") + ";";
+            method.setBody("{" + cache + key
+                    + "Object v = c.get(k);"
+                    + "if (v == null) v = c.put(k, ($w) " + impl.getName() + "($$));"
+                    + "return ($r) " + CACHE_TYPE + ".value(v);}");
+            logger.trace("enhanced @Cached method {}.{}", ctClass.getName(), name);
+        }
+        if (index > 0) {
+            description.setEnhancedByteCode(ctClass.toBytecode());
+        }
+        ctClass.defrost();
+    }
+}
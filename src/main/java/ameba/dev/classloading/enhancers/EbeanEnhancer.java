@@ -1,6 +1,6 @@
 package ameba.dev.classloading.enhancers;
 
-import ameba.dev.classloading.ClassDescription;
+import ameba.dev.classloading.ClassDraft;
 import ameba.meta.Description;
 import ameba.meta.Display;
 import ameba.util.ClassUtils;
@@ -34,7 +34,7 @@ public class EbeanEnhancer extends Enhancer {
     private InputStreamTransform transformer;
 
     public EbeanEnhancer(Map<String, Object> properties) {
-        super(true, properties);
+        super(properties);
         String logLevel = (String) getProperty("ebean.enhancer.log.level");
         int level = EBEAN_TRANSFORM_LOG_LEVEL;
         if (StringUtils.isNotBlank(logLevel)) {
@@ -47,13 +47,13 @@ public class EbeanEnhancer extends Enhancer {
     }
 
     @Override
-    public void enhance(ClassDescription desc) throws Exception {
+    public void enhance(ClassDraft desc) throws Exception {
         byte[] result;
         try (InputStream in = desc.getEnhancedByteCodeStream()) {
             result = transformer.transform(desc.className, in);
         }
         if (result != null)
-            desc.enhancedByteCode = result;
+            desc.setEnhancedByteCode(result);
         else
             logger.trace("{} class not change.", desc.className);
         CtClass ctClass = makeClass(desc);
@@ -66,7 +66,7 @@ public class EbeanEnhancer extends Enhancer {
                 addDbCommentAnnotation(attribute);
             }
 
-            desc.enhancedByteCode = ctClass.toBytecode();
+            desc.setEnhancedByteCode(ctClass.toBytecode());
         }
         ctClass.defrost();
     }
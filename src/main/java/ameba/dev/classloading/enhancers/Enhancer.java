@@ -1,6 +1,8 @@
 package ameba.dev.classloading.enhancers;
 
+import ameba.dev.classloading.ClassBytes;
 import ameba.dev.classloading.ClassDescription;
+import ameba.dev.classloading.ClassDraft;
 import ameba.dev.classloading.ReloadClassLoader;
 import ameba.dev.classloading.ReloadClassPath;
 import ameba.dev.compiler.JavaSource;
@@ -8,6 +10,8 @@ import ameba.util.ClassUtils;
 import ameba.util.IOUtils;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import javassist.*;
 import javassist.bytecode.AnnotationsAttribute;
 import javassist.bytecode.ClassFile;
@@ -17,12 +21,13 @@ import javassist.bytecode.annotation.MemberValue;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.annotation.Annotation;
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * @author icode
@@ -42,13 +47,12 @@ public abstract class Enhancer {
     protected String version = null;
     protected Map<String, Object> properties;
 
+    /**
+     * 增强器在 ReloadClassLoader 之前创建，类池不在这里创建，由 {@link #resetClassPool()} 在类加载器创建后创建
+     *
+     * @param properties 配置
+     */
     public Enhancer(Map<String, Object> properties) {
-        this(false, properties);
-    }
-
-    protected Enhancer(boolean initClassPool, Map<String, Object> properties) {
-        if (initClassPool && classPool == null)
-            classPool = newClassPool();
         this.properties = properties;
     }
 
@@ -60,6 +64,13 @@ public abstract class Enhancer {
         return classPool;
     }
 
+    /**
+     * 使用当前线程的类加载器重新创建类池，在 ReloadClassLoader 创建后调用
+     */
+    public static synchronized void resetClassPool() {
+        classPool = newClassPool();
+    }
+
     public static ClassPool getClassPool() {
         if (classPool == null) {
             synchronized (Enhancer.class) {
@@ -151,6 +162,22 @@ public abstract class Enhancer {
         return annotationsAttribute;
     }
 
+    /**
+     * Retrieve all invisible (class retention) method annotations.
+     *
+     * @param ctMethod ctMethod
+     * @return AnnotationsAttribute
+     */
+    public static AnnotationsAttribute getInvisibleAnnotations(CtMethod ctMethod) {
+        MethodInfo methodInfo = ctMethod.getMethodInfo();
+        AnnotationsAttribute annotationsAttribute = (AnnotationsAttribute) methodInfo.getAttribute(AnnotationsAttribute.invisibleTag);
+        if (annotationsAttribute == null) {
+            annotationsAttribute = new AnnotationsAttribute(methodInfo.getConstPool(), AnnotationsAttribute.invisibleTag);
+            ctMethod.getMethodInfo().addAttribute(annotationsAttribute);
+        }
+        return annotationsAttribute;
+    }
+
     public static boolean isFinal(CtField ctField) {
         return Modifier.isFinal(ctField.getModifiers());
     }
@@ -251,6 +278,7 @@ public abstract class Enhancer {
         if (gs != null) {
             setter.setGenericSignature("(" + gs + ")V;");
         }
+        addAnnotation(getInvisibleAnnotations(setter), GeneratedAccessor.class);
         clazz.addMethod(setter);
         return setter;
     }
@@ -261,12 +289,13 @@ public abstract class Enhancer {
         if (gs != null) {
             getter.setGenericSignature("()" + gs);
         }
+        addAnnotation(getInvisibleAnnotations(getter), GeneratedAccessor.class);
         clazz.addMethod(getter);
         return getter;
     }
 
-    public static CtClass makeClass(ClassDescription desc) throws IOException {
-        return classPool.makeClass(desc.getEnhancedByteCodeStream());
+    public static CtClass makeClass(ClassDraft desc) throws IOException {
+        return getClassPool().makeClass(desc.getEnhancedByteCodeStream());
     }
 
     public static String getGetterName(CtField field) throws NotFoundException {
@@ -290,7 +319,41 @@ public abstract class Enhancer {
         return version;
     }
 
-    public abstract void enhance(ClassDescription description) throws Exception;
+    /**
+     * 影响增强结果的配置项前缀，这些配置改变后已缓存的增强结果失效
+     *
+     * @return config key prefixes
+     */
+    protected String[] getConfigPrefixes() {
+        return new String[0];
+    }
+
+    /**
+     * 增强器签名，由增强器类名、版本和影响增强结果的配置组成
+     *
+     * @param properties 配置
+     * @return signature
+     */
+    public String getSignature(Map<String, Object> properties) {
+        Hasher hasher = Hashing.murmur3_32().newHasher()
+                .putUnencodedChars(getClass().getName())
+                .putChar('.')
+                .putUnencodedChars(String.valueOf(getVersion()));
+        String[] prefixes = getConfigPrefixes();
+        if (prefixes.length > 0) {
+            new TreeMap<>(properties).forEach((key, value) -> {
+                if (StringUtils.startsWithAny(key, prefixes)) {
+                    hasher.putChar('\n')
+                            .putUnencodedChars(key)
+                            .putChar('=')
+                            .putUnencodedChars(String.valueOf(value));
+                }
+            });
+        }
+        return hasher.hash().toString();
+    }
+
+    public abstract void enhance(ClassDraft description) throws Exception;
 
     public Map<String, Object> getProperties() {
         return properties;
@@ -304,29 +367,44 @@ public abstract class Enhancer {
         properties.put(key, value);
     }
 
+    /**
+     * 优先从 ClassCache 读取类字节码的类加载器
+     * <p>
+     * 增强器实例在容器重新加载后会被沿用，所以这里总是使用当前线程的 ReloadClassLoader，而不持有旧的加载器
+     */
     protected static class LoadCacheClassLoader extends ClassLoader {
         public LoadCacheClassLoader(ClassLoader parent) {
-            super(parent);
+            super(parent instanceof ReloadClassLoader ? parent.getParent() : parent);
         }
 
-        @Override
-        public URL getResource(String name) {
+        private static ReloadClassLoader getReloadClassLoader() {
+            ClassLoader cl = ClassUtils.getContextClassLoader();
+            return cl instanceof ReloadClassLoader ? (ReloadClassLoader) cl : null;
+        }
 
-            if (name != null && name.endsWith(JavaSource.CLASS_EXTENSION)) {
+        private ClassDescription getClassDesc(String name) {
+            ReloadClassLoader loader = getReloadClassLoader();
+            if (loader != null && name != null && name.endsWith(JavaSource.CLASS_EXTENSION)) {
                 String className = name.replace("/", ".").substring(0, name.length() - JavaSource.CLASS_EXTENSION.length());
-
-                ClassDescription desc = ((ReloadClassLoader) getParent()).getClassCache().get(className);
-
-                if (desc != null && desc.getEnhancedClassFile() != null && desc.getEnhancedClassFile().exists()) {
-                    try {
-                        return desc.getEnhancedClassFile().toURI().toURL();
-                    } catch (MalformedURLException e) {
-                        //no op
-                    }
-                }
+                return loader.getClassCache().get(className);
             }
+            return null;
+        }
 
-            return super.getResource(name);
+        @Override
+        public URL getResource(String name) {
+            URL url = ClassBytes.getURL(getClassDesc(name));
+            if (url != null) return url;
+            ReloadClassLoader loader = getReloadClassLoader();
+            return loader != null ? loader.getResource(name) : super.getResource(name);
+        }
+
+        @Override
+        public InputStream getResourceAsStream(String name) {
+            InputStream in = ClassBytes.getInputStream(getClassDesc(name));
+            if (in != null) return in;
+            ReloadClassLoader loader = getReloadClassLoader();
+            return loader != null ? loader.getResourceAsStream(name) : super.getResourceAsStream(name);
         }
     }
 }
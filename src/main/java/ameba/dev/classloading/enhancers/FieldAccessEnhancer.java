@@ -1,6 +1,10 @@
 package ameba.dev.classloading.enhancers;
 
-import ameba.dev.classloading.ClassDescription;
+import ameba.db.model.Model;
+import ameba.dev.classloading.ClassDraft;
+import ameba.dev.classloading.ClassHierarchy;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import javassist.*;
 import javassist.bytecode.Descriptor;
 import javassist.expr.ExprEditor;
@@ -9,24 +13,47 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.Map;
 
 /**
  * 替换方法内调用 model.field=value 为getter/setter
+ * <p>
+ * 访问器是自动生成的（{@link GeneratedAccessor}）、不能被覆盖（访问器为 private 或 final，或声明类为 final）
+ * 且声明类不是实体时保留直接访问字段；每个类替换和保留的字段访问以 debug 级别记录
  *
  * @author icode
  * @since 15-1-8
  */
 public class FieldAccessEnhancer extends Enhancer {
     private static final Logger logger = LoggerFactory.getLogger(FieldAccessEnhancer.class);
+    private static final String MODEL_TYPE = Model.class.getName();
+    private static final String[] ENTITY_ANNOTATIONS = {
+            "javax.persistence.Entity",
+            "javax.persistence.MappedSuperclass",
+            "javax.persistence.Embeddable"
+    };
 
     public FieldAccessEnhancer(Map<String, Object> properties) {
-        super(true, properties);
+        super(properties);
+    }
+
+    /**
+     * 由 ORM 增强的类需要通过访问器触发延迟加载及脏检查
+     */
+    private static boolean isEntity(CtClass ctClass) {
+        for (String annotation : ENTITY_ANNOTATIONS) {
+            if (hasAnnotation(ctClass, annotation)) return true;
+        }
+        return ClassHierarchy.isSubclassOf(ctClass.getName(), MODEL_TYPE);
     }
 
     @Override
-    public void enhance(ClassDescription description) throws Exception {
+    public void enhance(ClassDraft description) throws Exception {
         CtClass ctClass = makeClass(description);
+        final List<String> rewritten = Lists.newArrayList();
+        final List<String> kept = Lists.newArrayList();
+        final Map<String, Boolean> entities = Maps.newHashMap();
         for (final CtBehavior ctBehavior : ctClass.getDeclaredBehaviors()) {
             ctBehavior.instrument(new ExprEditor() {
                 @Override
@@ -41,7 +68,8 @@ public class FieldAccessEnhancer extends Enhancer {
                         // check getter or setter inner
                         String propertyName = null;
 
-                        if (dClass.equals(_bDClass) || _bDClass.subclassOf(dClass)) {
+                        if (dClass.equals(_bDClass)
+                                || ClassHierarchy.isSubclassOf(_bDClass.getName(), dClass.getName())) {
                             String bName = ctBehavior.getName();
                             if (bName.length() > 3 && (bName.startsWith("get")
                                     || (!isFinal(field) && bName.startsWith("set")))) {
@@ -59,15 +87,27 @@ public class FieldAccessEnhancer extends Enhancer {
                         if (propertyName == null || !propertyName.equals(fieldAccess.getFieldName())) {
                             if (fieldAccess.isReader()) {
                                 String name = getGetterName(field);
-                                if (hasMethod(dClass, name, Descriptor.ofMethod(field.getType(), null))) {
-                                    fieldAccess.replace("$_ = $0." + name + "();");
+                                CtMethod getter = getMethod(dClass, name, Descriptor.ofMethod(field.getType(), null));
+                                if (getter != null) {
+                                    if (keepDirectAccess(getter, entities)) {
+                                        kept.add(describe(fieldAccess, ctBehavior, "read"));
+                                    } else {
+                                        fieldAccess.replace("$_ = $0." + name + "();");
+                                        rewritten.add(describe(fieldAccess, ctBehavior, "read"));
+                                    }
                                 }
                             } else if (!isFinal(field) && fieldAccess.isWriter()) {
                                 String name = getSetterName(field);
-                                if (hasMethod(dClass, name, Descriptor.ofMethod(
+                                CtMethod setter = getMethod(dClass, name, Descriptor.ofMethod(
                                         CtClass.voidType, new CtClass[]{field.getType()}
-                                ))) {
-                                    fieldAccess.replace("$0." + name + "($1);");
+                                ));
+                                if (setter != null) {
+                                    if (keepDirectAccess(setter, entities)) {
+                                        kept.add(describe(fieldAccess, ctBehavior, "write"));
+                                    } else {
+                                        fieldAccess.replace("$0." + name + "($1);");
+                                        rewritten.add(describe(fieldAccess, ctBehavior, "write"));
+                                    }
                                 }
                             }
                         }
@@ -77,17 +117,40 @@ public class FieldAccessEnhancer extends Enhancer {
                 }
             });
         }
-        description.enhancedByteCode = ctClass.toBytecode();
+        if (!rewritten.isEmpty() || !kept.isEmpty()) {
+            logger.debug("{} field access rewritten {}: {}, kept {}: {}", description.className,
+                    rewritten.size(), rewritten, kept.size(), kept);
+        }
+        description.setEnhancedByteCode(ctClass.toBytecode());
         ctClass.defrost();
     }
 
-    private boolean hasMethod(CtClass dClass, String name, String desc) throws ClassNotFoundException {
+    private boolean keepDirectAccess(CtMethod accessor, Map<String, Boolean> entities) {
+        if (!accessor.hasAnnotation(GeneratedAccessor.class)) return false;
+        CtClass declaring = accessor.getDeclaringClass();
+        // 访问器可能被子类覆盖时仍需调用访问器
+        int modifiers = accessor.getModifiers();
+        if (!Modifier.isPrivate(modifiers) && !Modifier.isFinal(modifiers)
+                && !Modifier.isFinal(declaring.getModifiers())) {
+            return false;
+        }
+        return !entities.computeIfAbsent(declaring.getName(), name -> isEntity(declaring));
+    }
+
+    /**
+     * @return 报告中的一条记录，如 {@code a.B.name read in save:12}
+     */
+    private static String describe(FieldAccess fieldAccess, CtBehavior behavior, String kind) {
+        return fieldAccess.getClassName() + "." + fieldAccess.getFieldName() + " " + kind
+                + " in " + behavior.getName() + ":" + fieldAccess.getLineNumber();
+    }
+
+    private CtMethod getMethod(CtClass dClass, String name, String desc) {
         try {
-            dClass.getMethod(name, desc);
+            return dClass.getMethod(name, desc);
         } catch (NotFoundException ex) {
             logger.trace("Can not change field access", ex);
-            return false;
+            return null;
         }
-        return true;
     }
 }
@@ -0,0 +1,16 @@
+package ameba.dev.classloading.enhancers;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记由增强器自动生成的 getter/setter，方法体只读写字段
+ *
+ * @author icode
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.CLASS)
+public @interface GeneratedAccessor {
+}
@@ -1,70 +1,130 @@
 package ameba.dev.classloading.enhancers;
 
-import ameba.dev.classloading.ClassDescription;
-import ameba.exception.AmebaException;
+import ameba.dev.classloading.ClassDraft;
+import ameba.dev.classloading.ClassHierarchy;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import javassist.*;
+import javassist.bytecode.Descriptor;
 import javassist.expr.ExprEditor;
 import javassist.expr.FieldAccess;
 import org.apache.commons.lang3.StringUtils;
+import org.glassfish.hk2.api.Immediate;
 import org.glassfish.hk2.api.ServiceLocator;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
+import javax.inject.Singleton;
 import javax.ws.rs.core.Context;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
+ * 将注入字段替换为 Provider，读取时通过 Provider 获取实例
+ * <p>
+ * 单例（{@link Singleton}、{@link Immediate} 或配置 {@code inject.enhancer.singleton.types} 中的类型）
+ * 在第一次读取后缓存到生成的字段中，之后不再调用 {@link Provider#get()}
+ *
  * @author icode
  */
 public class InjectEnhancer extends Enhancer {
-    private static CtClass PROV_CLASS;
-    private static CtClass LOCATOR_CLASS;
+    private static final String PROVIDER_TYPE = Provider.class.getName();
+    private static final String LOCATOR_TYPE = ServiceLocator.class.getName();
+    private static final String CACHE_FIELD_PREFIX = "__ameba_inject_";
+    private static final String CACHE_METHOD_PREFIX = "__ameba_inject_get_";
+    private static final Set<String> DEFAULT_SINGLETON_TYPES = ImmutableSet.of(
+            "ameba.core.Application",
+            "javax.ws.rs.core.Application",
+            "javax.ws.rs.core.Configuration"
+    );
+    private final Set<String> singletonTypes = Sets.newHashSet(DEFAULT_SINGLETON_TYPES);
 
     public InjectEnhancer(Map<String, Object> properties) {
-        super(true, properties);
+        super(properties);
 
-        try {
-            if (PROV_CLASS == null)
-                PROV_CLASS = getClassPool().getCtClass(Provider.class.getName());
-        } catch (NotFoundException e) {
-            throw new AmebaException(e);
+        String types = (String) getProperty("inject.enhancer.singleton.types");
+        if (StringUtils.isNotBlank(types)) {
+            for (String type : StringUtils.split(types, ',')) {
+                if (StringUtils.isNotBlank(type)) singletonTypes.add(type.trim());
+            }
+        }
+    }
+
+    @Override
+    protected String[] getConfigPrefixes() {
+        return new String[]{"inject.enhancer."};
+    }
+
+
+    private boolean isInjectField(CtField field) {
+        if (isFinal(field) || isStatic(field)
+                || !(field.hasAnnotation(Inject.class) || field.hasAnnotation(Context.class))) {
+            return false;
         }
+        String type = Descriptor.toClassName(field.getFieldInfo2().getDescriptor());
+        return !ClassHierarchy.isSubclassOf(type, PROVIDER_TYPE)
+                && !ClassHierarchy.isSubclassOf(type, LOCATOR_TYPE);
+    }
+
+    private boolean isSingleton(CtField field) {
+        String type = Descriptor.toClassName(field.getFieldInfo2().getDescriptor());
+        if (singletonTypes.contains(type)) return true;
         try {
-            if (LOCATOR_CLASS == null)
-                LOCATOR_CLASS = getClassPool().getCtClass(ServiceLocator.class.getName());
+            CtClass fieldType = field.getType();
+            return fieldType.hasAnnotation(Singleton.class) || fieldType.hasAnnotation(Immediate.class);
         } catch (NotFoundException e) {
-            throw new AmebaException(e);
+            return false;
         }
     }
 
-
-    private boolean isInjectField(CtField field) throws NotFoundException {
-        return !isFinal(field) && !isStatic(field)
-                && (field.hasAnnotation(Inject.class)
-                || field.hasAnnotation(Context.class))
-                && !field.getType().subclassOf(PROV_CLASS)
-                && !field.getType().subclassOf(LOCATOR_CLASS);
+    private void addCachedGetter(CtClass ctClass, String fieldName) throws CannotCompileException {
+        String cacheField = CACHE_FIELD_PREFIX + fieldName;
+        CtField cache = CtField.make("private Object[] " + cacheField + ";", ctClass);
+        cache.setModifiers(Modifier.PRIVATE | Modifier.TRANSIENT | Modifier.VOLATILE);
+        ctClass.addField(cache);
+        // 缓存 {provider, instance}，字段被重新赋值后 provider 不同时重新获取
+        ctClass.addMethod(CtNewMethod.make("private Object " + CACHE_METHOD_PREFIX + fieldName + "() {"
+                + "javax.inject.Provider p = this." + fieldName + ";"
+                + "if (p == null) return null;"
+                + "Object[] c = this." + cacheField + ";"
+                + "if (c == null || c[0] != p) {"
+                + "c = new Object[2];"
+                + "c[0] = p;"
+                + "c[1] = p.get();"
+                + "this." + cacheField + " = c;"
+                + "}"
+                + "return c[1];"
+                + "}", ctClass));
     }
 
     @Override
-    public void enhance(ClassDescription description) throws Exception {
+    public void enhance(ClassDraft description) throws Exception {
         CtClass ctClass = makeClass(description);
 
+        final CtClass providerType = getClassPool().getCtClass(PROVIDER_TYPE);
         final List<String> changeFields = Lists.newArrayList();
+        final Set<String> cachedFields = Sets.newHashSet();
 
         for (CtField field : ctClass.getDeclaredFields()) {
             if (!isInjectField(field)) continue;
             String type = field.getGenericSignature();
             if (StringUtils.isBlank(type)) type = "L" + field.getType().getName().replace(".", "/") + ";";
-            field.setType(PROV_CLASS);
+            if (isSingleton(field)) cachedFields.add(field.getName());
+            field.setType(providerType);
             field.setGenericSignature("Ljavax/inject/Provider<" + type + ">;");
             changeFields.add(field.getName());
         }
 
         if (changeFields.size() > 0) {
+            // 替换后的读取会调用缓存方法，需要先生成
+            for (String fieldName : cachedFields) {
+                addCachedGetter(ctClass, fieldName);
+            }
             for (final CtBehavior ctBehavior : ctClass.getDeclaredBehaviors()) {
+                // 缓存方法直接读取 Provider 字段
+                if (ctBehavior.getName().startsWith(CACHE_METHOD_PREFIX)) continue;
                 ctBehavior.instrument(new ExprEditor() {
                     @Override
                     public void edit(FieldAccess f) throws CannotCompileException {
@@ -74,14 +134,18 @@ public class InjectEnhancer extends Enhancer {
                             CtField field = f.getField();
                             CtClass dClass = field.getDeclaringClass();
                             changeIt = isInjectField(field) && (
-                                    dClass.equals(ctClass) || ctClass.subclassOf(dClass)
+                                    dClass.equals(ctClass)
+                                            || ClassHierarchy.isSubclassOf(ctClass.getName(), dClass.getName())
                             );
                         } catch (NotFoundException e) {
                             changeIt = changeFields.contains(fName);
                         }
 
                         if (changeIt) {
-                            if (f.isReader()) {
+                            if (f.isReader() && cachedFields.contains(fName)
+                                    && f.getClassName().equals(ctClass.getName())) {
+                                f.replace("$_ = ($r) $0." + CACHE_METHOD_PREFIX + fName + "();");
+                            } else if (f.isReader()) {
                                 String provid = "$0." + fName;
                                 f.replace("$_ = ($r)(" + provid + " == null ? null : " + provid + ".get());");
                             } else if (f.isWriter()) {
@@ -93,7 +157,7 @@ public class InjectEnhancer extends Enhancer {
             }
             changeFields.clear();
         }
-        description.enhancedByteCode = ctClass.toBytecode();
+        description.setEnhancedByteCode(ctClass.toBytecode());
         ctClass.defrost();
     }
 }
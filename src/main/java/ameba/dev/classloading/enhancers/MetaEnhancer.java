@@ -1,28 +1,40 @@
 package ameba.dev.classloading.enhancers;
 
-import ameba.dev.classloading.ClassDescription;
+import ameba.dev.classloading.ClassDraft;
+import ameba.dev.compiler.SourceMeta;
 import ameba.meta.Description;
 import ameba.meta.Display;
 import ameba.meta.Tag;
 import ameba.meta.Tags;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.thoughtworks.qdox.JavaProjectBuilder;
 import com.thoughtworks.qdox.model.*;
+import javassist.CtBehavior;
 import javassist.CtClass;
 import javassist.CtField;
 import javassist.CtMethod;
+import javassist.NotFoundException;
+import javassist.bytecode.AccessFlag;
 import javassist.bytecode.AnnotationsAttribute;
 import javassist.bytecode.ConstPool;
+import javassist.bytecode.Descriptor;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.MethodParametersAttribute;
 import javassist.bytecode.annotation.*;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.File;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
- * 转换注释为meta信息
+ * 转换注释为meta信息，并为方法写入 MethodParameters 属性
  *
  * @author icode
  * @since 15-1-8
@@ -33,78 +45,222 @@ public class MetaEnhancer extends Enhancer {
     private static final String NEWLINE = "\n";
     private static final String COMMA = ",";
     private static final String EMPTY = "";
+    private static final Set<String> PRIMITIVES = ImmutableSet.of(
+            "boolean", "byte", "char", "short", "int", "long", "float", "double");
     private static final String PARANAMER_FIELD_NAME = "__PARANAMER_DATA";
     private static final String PARANAMER_FIELD = "private static final String " + PARANAMER_FIELD_NAME + " = \"By-Ameba-MetaEnhancer-v";
 
+    private final Cache<String, ParsedSource> parsedSources = CacheBuilder.newBuilder().maximumSize(32).build();
+
     public MetaEnhancer(Map<String, Object> properties) {
-        super(true, properties);
+        super(properties);
     }
 
     @Override
-    public void enhance(ClassDescription description) throws Exception {
-        if (description.javaFile != null && description.javaFile.isFile() && description.javaFile.exists()) {
-            JavaProjectBuilder builder = new JavaProjectBuilder();
-            String encoding = (String) getProperty("app.encoding");
+    protected String[] getConfigPrefixes() {
+        return new String[]{"meta.enhancer.", "app.encoding"};
+    }
 
-            if (StringUtils.isBlank(encoding)) encoding = "utf-8";
-            builder.setEncoding(encoding);
-            builder.addSource(description.javaFile);
-            JavaClass javaClass = builder.getClassByName(description.className);
-            if (javaClass != null) {
+    @Override
+    public void enhance(ClassDraft description) throws Exception {
+        if (description.javaFile != null && description.javaFile.isFile() && description.javaFile.exists()) {
+            SourceMeta sourceMeta = getSourceMeta(description);
+            if (sourceMeta != null && sourceMeta.getType() != null) {
                 CtClass ctClass = makeClass(description);
+                boolean paranamer = isParanamerEnabled();
                 boolean hasParanamerFiled = false;
-                try {
-                    ctClass.getDeclaredField(PARANAMER_FIELD_NAME);
-                    hasParanamerFiled = true;
-                } catch (Exception e) {
-                    // no op
-                }
-                classMetaGenerate(ctClass, javaClass);
-                for (JavaField field : javaClass.getFields()) {
-                    if (field.isPublic()) {
-                        fieldMetaGenerate(ctClass.getField(field.getName()), field);
+                if (paranamer) {
+                    try {
+                        ctClass.getDeclaredField(PARANAMER_FIELD_NAME);
+                        hasParanamerFiled = true;
+                    } catch (Exception e) {
+                        // no op
                     }
                 }
+                metaGenerate(ctClass, sourceMeta.getType());
+                for (SourceMeta.Member field : sourceMeta.getFields()) {
+                    metaGenerate(ctClass.getField(field.getName()), field);
+                }
 
                 StringBuilder buffer = new StringBuilder();
 
-                if (!hasParanamerFiled) {
-                    javaClass.getConstructors().stream()
-                            .filter(constructor -> constructor.getParameters().size() > 0)
-                            .forEachOrdered(constructor -> formatConstructor(buffer, constructor));
+                for (SourceMeta.Member constructor : sourceMeta.getConstructors()) {
+                    if (constructor.getParameterNames().size() > 0) {
+                        addMethodParameters(findBehavior(ctClass.getDeclaredConstructors(), constructor), constructor);
+                        if (paranamer && !hasParanamerFiled) {
+                            appendParamInfo(buffer, "<init>", constructor);
+                        }
+                    }
                 }
 
-                for (JavaMethod method : javaClass.getMethods()) {
-                    methodMetaGenerate(ctClass.getDeclaredMethod(method.getName()), method);
-                    if (!hasParanamerFiled && method.getParameters().size() > 0) {
-                        formatMethod(buffer, method);
+                for (SourceMeta.Member method : sourceMeta.getMethods()) {
+                    CtMethod[] ctMethods = ctClass.getDeclaredMethods(method.getName());
+                    CtMethod ctMethod = (CtMethod) findBehavior(ctMethods, method);
+                    if (ctMethod == null && ctMethods.length > 0) {
+                        ctMethod = ctMethods[0];
+                    }
+                    if (ctMethod != null) {
+                        metaGenerate(ctMethod, method);
+                    }
+                    if (method.getParameterNames().size() > 0) {
+                        addMethodParameters(findBehavior(ctMethods, method), method);
+                        if (paranamer && !hasParanamerFiled) {
+                            appendParamInfo(buffer, method.getName(), method);
+                        }
                     }
                 }
-                if (!hasParanamerFiled && buffer.length() > 0) {
+                if (paranamer && !hasParanamerFiled && buffer.length() > 0) {
                     ctClass.addField(CtField.make(PARANAMER_FIELD
                             + getVersion() + " \\n"
                             + buffer.toString().replace(NEWLINE, "\\n")
                             + "\";", ctClass));
                 }
-                description.enhancedByteCode = ctClass.toBytecode();
+                description.setEnhancedByteCode(ctClass.toBytecode());
                 ctClass.defrost();
             }
         }
     }
 
-    private void fieldMetaGenerate(CtField ctField, JavaField javaField) {
-        boolean hasDisplay = ctField.hasAnnotation(Display.class);
-        boolean hasDescription = ctField.hasAnnotation(Description.class);
-        metaGenerate(hasDisplay, hasDescription, ctField, javaField);
+    /**
+     * 旧的 paranamer 字符串默认仍然生成，已有的读取方不受影响，可配置 {@code meta.enhancer.paranamer=false} 关闭
+     */
+    private boolean isParanamerEnabled() {
+        Object value = getProperty("meta.enhancer.paranamer");
+        return value == null || !"false".equalsIgnoreCase(value.toString().trim());
+    }
+
+    /**
+     * 写入标准的 MethodParameters 属性，可直接通过 {@link java.lang.reflect.Parameter#getName()} 读取。
+     * 已有该属性（使用 -parameters 编译）或参数个数与描述符不一致（如内部类构造器）时不处理
+     */
+    private void addMethodParameters(CtBehavior behavior, SourceMeta.Member member) {
+        if (behavior == null) return;
+        MethodInfo methodInfo = behavior.getMethodInfo();
+        if (methodInfo.getAttribute(MethodParametersAttribute.tag) != null) return;
+        List<String> names = member.getParameterNames();
+        if (Descriptor.numOfParameters(methodInfo.getDescriptor()) != names.size()) return;
+        methodInfo.addAttribute(new MethodParametersAttribute(
+                methodInfo.getConstPool(),
+                names.toArray(new String[names.size()]),
+                new int[names.size()]
+        ));
+    }
+
+    /**
+     * 优先使用编译时保存的 meta，没有时（如由 IDE 编译的类）才解析源文件，同一源文件只解析一次
+     */
+    private SourceMeta getSourceMeta(ClassDraft description) throws Exception {
+        if (description.projectInfo != null) {
+            SourceMeta meta = SourceMeta.read(
+                    SourceMeta.getMetaFile(description.projectInfo.getOutputDirectory(), description.className),
+                    description.javaFile
+            );
+            if (meta != null) return meta;
+        }
+
+        File javaFile = description.javaFile;
+        ParsedSource parsed = parsedSources.getIfPresent(javaFile.getPath());
+        if (parsed == null || parsed.lastModified != javaFile.lastModified()) {
+            JavaProjectBuilder builder = new JavaProjectBuilder();
+            String encoding = (String) getProperty("app.encoding");
+
+            if (StringUtils.isBlank(encoding)) encoding = "utf-8";
+            builder.setEncoding(encoding);
+            builder.addSource(javaFile);
+            parsed = new ParsedSource(javaFile.lastModified(), builder);
+            parsedSources.put(javaFile.getPath(), parsed);
+        }
+        JavaClass javaClass = parsed.builder.getClassByName(description.className);
+        return javaClass == null ? null : toSourceMeta(description.className, javaClass);
+    }
+
+    private SourceMeta toSourceMeta(String className, JavaClass javaClass) {
+        SourceMeta meta = new SourceMeta(className);
+        meta.setType(toMember(javaClass.getName(), javaClass));
+        javaClass.getFields().stream()
+                .filter(JavaField::isPublic)
+                .forEachOrdered(field -> meta.getFields().add(toMember(field.getName(), field)));
+        for (JavaConstructor constructor : javaClass.getConstructors()) {
+            meta.getConstructors().add(toMember(constructor.getName(), constructor, constructor.getParameters()));
+        }
+        for (JavaMethod method : javaClass.getMethods()) {
+            meta.getMethods().add(toMember(method.getName(), method, method.getParameters()));
+        }
+        return meta;
+    }
+
+    private SourceMeta.Member toMember(String name, JavaAnnotatedElement element) {
+        SourceMeta.Member member = new SourceMeta.Member(name);
+        member.setComment(element.getComment());
+        List<SourceMeta.Tag> tags = Lists.newArrayList();
+        for (DocletTag tag : element.getTags()) {
+            tags.add(new SourceMeta.Tag(tag.getName(), tag.getValue()));
+        }
+        member.setTags(tags);
+        return member;
+    }
+
+    private SourceMeta.Member toMember(String name, JavaAnnotatedElement element, List<JavaParameter> parameters) {
+        SourceMeta.Member member = toMember(name, element);
+        List<String> types = Lists.newArrayList();
+        List<String> names = Lists.newArrayList();
+        for (JavaParameter parameter : parameters) {
+            // This code is a bit dodgy to ensure that both inner classes and arrays shows up correctly.
+            // It is based in the Type.toString() method, but using getFullyQualifiedName() instead of getValue().
+            types.add(parameter.getType().getFullyQualifiedName());
+            names.add(parameter.getName());
+        }
+        member.setParameterTypes(types);
+        member.setParameterNames(names);
+        return member;
+    }
+
+    private CtBehavior findBehavior(CtBehavior[] behaviors, SourceMeta.Member member) {
+        for (CtBehavior behavior : behaviors) {
+            try {
+                CtClass[] types = behavior.getParameterTypes();
+                if (types.length != member.getParameterTypes().size()) continue;
+                boolean varArgs = (behavior.getModifiers() & AccessFlag.VARARGS) != 0;
+                boolean match = true;
+                for (int i = 0; i < types.length && match; i++) {
+                    String name = member.getParameterTypes().get(i);
+                    if (varArgs && i == types.length - 1) name += "[]";
+                    match = matchType(types[i].getName(), name);
+                }
+                if (match) return behavior;
+            } catch (NotFoundException e) {
+                // no op
+            }
+        }
+        return null;
     }
 
-    private void methodMetaGenerate(CtMethod ctMethod, JavaMethod javaMethod) {
-        boolean hasDisplay = ctMethod.hasAnnotation(Display.class);
-        boolean hasDescription = ctMethod.hasAnnotation(Description.class);
-        metaGenerate(hasDisplay, hasDescription, ctMethod, javaMethod);
+    /**
+     * 参数类型为 qdox 格式，类型变量只有名称，与擦除后的任意类型匹配
+     */
+    private boolean matchType(String typeName, String name) {
+        if (typeName.equals(name)) return true;
+        String component = name;
+        while (component.endsWith("[]")) {
+            component = component.substring(0, component.length() - 2);
+        }
+        return component.indexOf('.') < 0 && !PRIMITIVES.contains(component)
+                && typeName.endsWith(name.substring(component.length()));
     }
 
-    private void metaGenerate(boolean hasDisplay, boolean hasDescription, Object ct, JavaAnnotatedElement element) {
+    private void metaGenerate(Object ct, SourceMeta.Member element) {
+        boolean hasDisplay;
+        boolean hasDescription;
+        if (ct instanceof CtMethod) {
+            hasDisplay = ((CtMethod) ct).hasAnnotation(Display.class);
+            hasDescription = ((CtMethod) ct).hasAnnotation(Description.class);
+        } else if (ct instanceof CtClass) {
+            hasDisplay = ((CtClass) ct).hasAnnotation(Display.class);
+            hasDescription = ((CtClass) ct).hasAnnotation(Description.class);
+        } else {
+            hasDisplay = ((CtField) ct).hasAnnotation(Display.class);
+            hasDescription = ((CtField) ct).hasAnnotation(Description.class);
+        }
         if (!hasDisplay || !hasDescription) {
             Meta meta = parseComment(element.getComment());
             if (meta != null) {
@@ -115,18 +271,12 @@ public class MetaEnhancer extends Enhancer {
                     attribute = getAnnotations((CtClass) ct);
                 else if (ct instanceof CtField)
                     attribute = getAnnotations((CtField) ct);
-                meta.docletTags = element.getTags();
+                meta.tags = element.getTags();
                 metaGenerate(hasDisplay, hasDescription, attribute, meta);
             }
         }
     }
 
-    private void classMetaGenerate(CtClass ctClass, JavaClass javaClass) {
-        boolean hasDisplay = ctClass.hasAnnotation(Display.class);
-        boolean hasDescription = ctClass.hasAnnotation(Description.class);
-        metaGenerate(hasDisplay, hasDescription, ctClass, javaClass);
-    }
-
     private void metaGenerate(
             boolean hasDisplay,
             boolean hasDescription,
@@ -147,13 +297,13 @@ public class MetaEnhancer extends Enhancer {
                 //no op
             }
         }
-        if (CollectionUtils.isNotEmpty(meta.docletTags)) {
+        if (CollectionUtils.isNotEmpty(meta.tags)) {
 
             ArrayMemberValue memberValue = new ArrayMemberValue(cp);
 
             List<MemberValue> valueList = Lists.newArrayList();
 
-            for (DocletTag tag : meta.docletTags) {
+            for (SourceMeta.Tag tag : meta.tags) {
                 try {
                     Annotation annotation = new Annotation(Tag.class.getName(), cp);
                     annotation.addMemberValue("name", new StringMemberValue(tag.getName(), cp));
@@ -186,49 +336,24 @@ public class MetaEnhancer extends Enhancer {
         return meta;
     }
 
-    private void formatMethod(StringBuilder sb, JavaMethod method) {
-        String methodName = method.getName();
-        List<JavaParameter> parameters = method.getParameters();
-        // processClasses line structure:  methodName paramTypes paramNames
-        appendParamInfo(sb, methodName, parameters);
-    }
-
-    private void formatConstructor(StringBuilder sb, JavaConstructor constructor) {
-        String methodName = "<init>";
-        List<JavaParameter> parameters = constructor.getParameters();
-        appendParamInfo(sb, methodName, parameters);
-    }
-
-    private void appendParamInfo(StringBuilder sb, String methodName, List<JavaParameter> parameters) {
+    private void appendParamInfo(StringBuilder sb, String methodName, SourceMeta.Member member) {
         // processClasses line structure:  methodName paramTypes paramNames
         sb.append(methodName).append(SPACE);
-        if (parameters.size() > 0) {
-            formatParameterTypes(sb, parameters);
+        List<String> names = member.getParameterNames();
+        if (names.size() > 0) {
+            List<String> types = member.getParameterTypes();
+            for (int i = 0; i < types.size(); i++) {
+                sb.append(types.get(i)).append(comma(i, types.size()));
+            }
             sb.append(SPACE);
-            formatParameterNames(sb, parameters);
+            for (int i = 0; i < names.size(); i++) {
+                sb.append(names.get(i)).append(comma(i, names.size()));
+            }
             sb.append(SPACE);
         }
         sb.append(NEWLINE);
     }
 
-    private void formatParameterNames(StringBuilder sb, List<JavaParameter> parameters) {
-        for (int i = 0; i < parameters.size(); i++) {
-            sb.append(parameters.get(i).getName());
-            sb.append(comma(i, parameters.size()));
-        }
-    }
-
-    private void formatParameterTypes(StringBuilder sb, List<JavaParameter> parameters) {
-        for (int i = 0; i < parameters.size(); i++) {
-
-            // This code is a bit dodgy to ensure that both inner classes and arrays shows up correctly.
-            // It is based in the Type.toString() method, but using getFullyQualifiedName() instead of getValue().
-            JavaType t = parameters.get(i).getType();
-            sb.append(t.getFullyQualifiedName())
-                    .append(comma(i, parameters.size()));
-        }
-    }
-
     private String comma(int index, int size) {
         return (index + 1 < size) ? COMMA : EMPTY;
     }
@@ -236,6 +361,16 @@ public class MetaEnhancer extends Enhancer {
     private class Meta {
         String display;
         String desc;
-        List<DocletTag> docletTags;
+        List<SourceMeta.Tag> tags;
+    }
+
+    private static class ParsedSource {
+        final long lastModified;
+        final JavaProjectBuilder builder;
+
+        ParsedSource(long lastModified, JavaProjectBuilder builder) {
+            this.lastModified = lastModified;
+            this.builder = builder;
+        }
     }
 }
@@ -3,7 +3,8 @@ package ameba.dev.classloading.enhancers;
 import ameba.db.annotation.DataSource;
 import ameba.db.model.Model;
 import ameba.db.model.ModelProperties;
-import ameba.dev.classloading.ClassDescription;
+import ameba.dev.classloading.ClassDraft;
+import ameba.dev.classloading.ClassHierarchy;
 import ameba.exception.UnexpectedException;
 import javassist.*;
 import org.apache.commons.lang3.StringUtils;
@@ -26,33 +27,21 @@ public class ModelEnhancer extends Enhancer {
     private static final String ID_ANNOTATION = "javax.persistence.Id";
     private static final String EMBEDDED_ID_ANNOTATION = "javax.persistence.EmbeddedId";
     private static final String EMBEDDABLE_ANNOTATION = "javax.persistence.Embeddable";
-    private static final String LANG3_BUILDER_PKG = "org.apache.commons.lang3.builder.";
-    private static final String HASH_CODE_BUILDER = LANG3_BUILDER_PKG + "HashCodeBuilder";
-    private static final String EQUALS_BUILDER = LANG3_BUILDER_PKG + "EqualsBuilder";
-    private static CtClass serializableType;
-    private static CtClass modelType;
+    private static final String MODEL_TYPE = Model.class.getName();
+    private static final String DEFAULT_DATA_SOURCE_FIELD = "_defaultDataSource";
+    private static final String DEFAULT_DATA_SOURCE_METHOD = "_getDefaultDataSource";
 
     public ModelEnhancer(Map<String, Object> properties) {
-        super(true, properties);
+        super(properties);
+    }
 
-        if (modelType == null) {
-            try {
-                modelType = getClassPool().get(Model.class.getName());
-            } catch (NotFoundException e) {
-                //
-            }
-        }
-        if (serializableType == null) {
-            try {
-                serializableType = getClassPool().get(Serializable.class.getName());
-            } catch (NotFoundException e) {
-                //
-            }
-        }
+    @Override
+    protected String[] getConfigPrefixes() {
+        return new String[]{"orm.finder", "orm.persister", "orm.updater"};
     }
 
     @Override
-    public void enhance(ClassDescription description) {
+    public void enhance(ClassDraft description) {
         try {
             CtClass ctClass = makeClass(description);
 
@@ -60,7 +49,7 @@ public class ModelEnhancer extends Enhancer {
             boolean isEntity = true;
 
             if (!hasAnnotation(ctClass, ENTITY_ANNOTATION)) {
-                boolean modelSub = ctClass.subclassOf(modelType);
+                boolean modelSub = ClassHierarchy.isSubclassOf(ctClass.getName(), MODEL_TYPE);
                 if (modelSub && !hasAnnotation(ctClass, MAPPED_ANNOTATION)) {
                     addAnnotation(getAnnotations(ctClass), ENTITY_ANNOTATION);
                 } else
@@ -90,14 +79,14 @@ public class ModelEnhancer extends Enhancer {
 
                 boolean isSer = false;
                 for (CtClass inter : ctClass.getInterfaces()) {
-                    if (inter.getName().equals(serializableType.getName())) {
+                    if (inter.getName().equals(Serializable.class.getName())) {
                         isSer = true;
                         break;
                     }
                 }
 
                 if (!isSer) {
-                    ctClass.addInterface(serializableType);
+                    ctClass.addInterface(getClassPool().get(Serializable.class.getName()));
                 }
 
                 try {
@@ -108,13 +97,12 @@ public class ModelEnhancer extends Enhancer {
                             .append("if (this == o) return true;")
                             .append("if (!(o instanceof ").append(className).append(")) return false;")
                             .append(className).append(" other = (").append(className).append(") o;");
-                    builder.append("return new ").append(EQUALS_BUILDER).append("()");
-                    appendEqBuilderField(ctClass.getDeclaredFields(), builder);
+                    appendEqualsField(ctClass.getDeclaredFields(), builder);
 
                     CtClass suClass = ctClass.getSuperclass();
                     if (suClass != null)
-                        appendEqBuilderField(suClass.getFields(), builder);
-                    builder.append(".isEquals();}");
+                        appendEqualsField(suClass.getFields(), builder);
+                    builder.append("return true;}");
                     ctClass.addMethod(
                             CtNewMethod.make(builder.toString(), ctClass)
                     );
@@ -123,13 +111,13 @@ public class ModelEnhancer extends Enhancer {
                     ctClass.getDeclaredMethod("hashCode", new CtClass[]{});
                 } catch (NotFoundException e) {
                     StringBuilder builder = new StringBuilder("public int hashCode() {");
-                    builder.append("return new ").append(HASH_CODE_BUILDER).append("(17, 37)");
-                    appendHashCodeBuilderField(ctClass.getDeclaredFields(), builder);
+                    builder.append("int h = 17;");
+                    appendHashCodeField(ctClass.getDeclaredFields(), builder);
 
                     CtClass suClass = ctClass.getSuperclass();
                     if (suClass != null)
-                        appendHashCodeBuilderField(suClass.getFields(), builder);
-                    builder.append(".toHashCode();}");
+                        appendHashCodeField(suClass.getFields(), builder);
+                    builder.append("return h;}");
                     ctClass.addMethod(
                             CtNewMethod.make(builder.toString(), ctClass)
                     );
@@ -193,30 +181,105 @@ public class ModelEnhancer extends Enhancer {
                 entityEnhancer(ctClass, field);
             }
 
-            description.enhancedByteCode = ctClass.toBytecode();
+            description.setEnhancedByteCode(ctClass.toBytecode());
             ctClass.defrost();
         } catch (Exception e) {
             throw new EnhancingException(e);
         }
     }
 
-    private void appendHashCodeBuilderField(CtField[] fields, StringBuilder builder) {
+    /**
+     * 逐个字段比较，基本类型直接比较，不创建 EqualsBuilder 也不装箱
+     */
+    private void appendEqualsField(CtField[] fields, StringBuilder builder) {
         for (CtField ctField : fields) {
             if (isProperty(ctField, false)) {
-                builder.append(".append(").append(ctField.getName()).append(")");
+                String fn = "this." + ctField.getName();
+                String on = "other." + ctField.getName();
+                switch (ctField.getFieldInfo2().getDescriptor().charAt(0)) {
+                    case 'F':
+                        builder.append("if (Float.compare(").append(fn).append(", ").append(on).append(") != 0)");
+                        break;
+                    case 'D':
+                        builder.append("if (Double.compare(").append(fn).append(", ").append(on).append(") != 0)");
+                        break;
+                    case 'Z':
+                    case 'B':
+                    case 'C':
+                    case 'S':
+                    case 'I':
+                    case 'J':
+                        builder.append("if (").append(fn).append(" != ").append(on).append(")");
+                        break;
+                    case '[':
+                        if (isPrimitiveArray(ctField)) {
+                            builder.append("if (!java.util.Arrays.equals(").append(fn).append(", ").append(on).append("))");
+                        } else {
+                            // javassist 不支持数组的协变转换，经 Object 转为 Object[]
+                            builder.append("if (!java.util.Arrays.deepEquals((Object[]) (Object) ").append(fn)
+                                    .append(", (Object[]) (Object) ").append(on).append("))");
+                        }
+                        break;
+                    default:
+                        builder.append("if (").append(fn).append(" != ").append(on).append(" && (")
+                                .append(fn).append(" == null || !").append(fn).append(".equals(").append(on).append(")))");
+                }
+                builder.append(" return false;");
             }
         }
     }
 
-    private void appendEqBuilderField(CtField[] fields, StringBuilder builder) {
+    /**
+     * 展开为 h = 31 * h + fieldHash，不创建 HashCodeBuilder 也不装箱
+     */
+    private void appendHashCodeField(CtField[] fields, StringBuilder builder) {
         for (CtField ctField : fields) {
             if (isProperty(ctField, false)) {
-                String fn = ctField.getName();
-                builder.append(".append(").append(fn).append(", other.").append(fn).append(")");
+                String fn = "this." + ctField.getName();
+                builder.append("h = 31 * h + ");
+                switch (ctField.getFieldInfo2().getDescriptor().charAt(0)) {
+                    case 'Z':
+                        builder.append("(").append(fn).append(" ? 1231 : 1237)");
+                        break;
+                    case 'B':
+                    case 'C':
+                    case 'S':
+                    case 'I':
+                        builder.append("(int) ").append(fn);
+                        break;
+                    case 'J':
+                        builder.append("(int) (").append(fn).append(" ^ (").append(fn).append(" >>> 32))");
+                        break;
+                    case 'F':
+                        builder.append("Float.floatToIntBits(").append(fn).append(")");
+                        break;
+                    case 'D':
+                        builder.append("(int) (Double.doubleToLongBits(").append(fn)
+                                .append(") ^ (Double.doubleToLongBits(").append(fn).append(") >>> 32))");
+                        break;
+                    case '[':
+                        if (isPrimitiveArray(ctField)) {
+                            builder.append("java.util.Arrays.hashCode(").append(fn).append(")");
+                        } else {
+                            builder.append("java.util.Arrays.deepHashCode((Object[]) (Object) ").append(fn).append(")");
+                        }
+                        break;
+                    default:
+                        builder.append("(").append(fn).append(" == null ? 0 : ").append(fn).append(".hashCode())");
+                }
+                builder.append(";");
             }
         }
     }
 
+    /**
+     * 一维基本类型数组，其余数组（对象数组、多维数组）逐个元素深度比较
+     */
+    private boolean isPrimitiveArray(CtField ctField) {
+        String descriptor = ctField.getFieldInfo2().getDescriptor();
+        return descriptor.length() == 2;
+    }
+
     boolean entityEnhancer(CtClass ctClass, CtField field) throws ClassNotFoundException, NotFoundException, CannotCompileException {
         if ((hasAnnotation(field, ID_ANNOTATION)
                 || hasAnnotation(field, EMBEDDED_ID_ANNOTATION))
@@ -227,11 +290,31 @@ public class ModelEnhancer extends Enhancer {
 
             DataSource dataSource = (DataSource) ctClass.getAnnotation(DataSource.class);
 
-            String dataSouceName = dataSource == null || StringUtils.isBlank(dataSource.value())
-                    ? "ameba.db.DataSourceManager.getDefaultDataSourceName()"
-                    : "\"" + dataSource.value() + "\"";
-
             CtClass stringType = getClassPool().get("java.lang.String");
+            String dataSouceName;
+            if (dataSource == null || StringUtils.isBlank(dataSource.value())) {
+                dataSouceName = DEFAULT_DATA_SOURCE_METHOD + "()";
+                try {
+                    ctClass.getDeclaredMethod(DEFAULT_DATA_SOURCE_METHOD, null);
+                } catch (NotFoundException e) {
+                    // 只缓存默认数据源名称；finder 等有状态，每次调用都创建新实例
+                    CtField defaultDataSource = new CtField(stringType, DEFAULT_DATA_SOURCE_FIELD, ctClass);
+                    defaultDataSource.setModifiers(Modifier.PRIVATE | Modifier.STATIC | Modifier.VOLATILE);
+                    ctClass.addField(defaultDataSource);
+                    CtMethod getDefaultDataSource = new CtMethod(stringType, DEFAULT_DATA_SOURCE_METHOD, null, ctClass);
+                    getDefaultDataSource.setModifiers(Modifier.PRIVATE | Modifier.STATIC);
+                    getDefaultDataSource.setBody("{String n = " + DEFAULT_DATA_SOURCE_FIELD + ";"
+                            + "if (n == null) {"
+                            + "n = ameba.db.DataSourceManager.getDefaultDataSourceName();"
+                            + DEFAULT_DATA_SOURCE_FIELD + " = n;"
+                            + "}"
+                            + "return n;}");
+                    ctClass.addMethod(getDefaultDataSource);
+                }
+            } else {
+                dataSouceName = "\"" + dataSource.value() + "\"";
+            }
+
             CtClass[] _fArgs = new CtClass[]{stringType};
             String genericSignatureStart = "(";
             String genericSignatureEnd = ")L" + ModelProperties.FINDER_C_NAME.replace(".", "/") +
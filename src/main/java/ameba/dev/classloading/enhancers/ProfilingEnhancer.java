@@ -0,0 +1,138 @@
+package ameba.dev.classloading.enhancers;
+
+import ameba.dev.classloading.ClassDraft;
+import ameba.dev.profiling.Profiler;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.Modifier;
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.annotation.Annotation;
+import javassist.bytecode.annotation.MemberValue;
+import javassist.bytecode.annotation.StringMemberValue;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 在 JAX-RS 资源方法及配置的包（{@code profiling.enhancer.packages}，逗号分隔）内的方法前后插入
+ * {@link Profiler} 计时探针
+ * <p>
+ * 默认不启用，需要在配置中加入 {@code enhancer.profiling=ameba.dev.classloading.enhancers.ProfilingEnhancer}，
+ * 启用后可通过 {@code GET __dev/profiling} 查看各接口（按 HTTP 方法、路径和资源方法区分）的方法耗时
+ *
+ * @author icode
+ */
+public class ProfilingEnhancer extends Enhancer {
+    private static final String FIELD_PREFIX = "__ameba_prof_";
+    private static final String PROFILER = Profiler.class.getName();
+    private static final String PATH_ANNOTATION = "javax.ws.rs.Path";
+    private static final List<String> HTTP_METHOD_ANNOTATIONS = ImmutableList.of(
+            "javax.ws.rs.GET",
+            "javax.ws.rs.POST",
+            "javax.ws.rs.PUT",
+            "javax.ws.rs.DELETE",
+            "javax.ws.rs.HEAD",
+            "javax.ws.rs.OPTIONS",
+            "javax.ws.rs.PATCH"
+    );
+    private final List<String> packages = Lists.newArrayList();
+
+    public ProfilingEnhancer(Map<String, Object> properties) {
+        super(properties);
+        String value = (String) getProperty("profiling.enhancer.packages");
+        if (StringUtils.isNotBlank(value)) {
+            for (String pkg : StringUtils.split(value, ',')) {
+                if (StringUtils.isNotBlank(pkg)) packages.add(pkg.trim() + ".");
+            }
+        }
+    }
+
+    @Override
+    protected String[] getConfigPrefixes() {
+        return new String[]{"profiling.enhancer."};
+    }
+
+    private static String getPath(AnnotationsAttribute attribute) {
+        if (attribute == null) return null;
+        Annotation path = attribute.getAnnotation(PATH_ANNOTATION);
+        if (path == null) return null;
+        MemberValue value = path.getMemberValue("value");
+        return value instanceof StringMemberValue ? ((StringMemberValue) value).getValue() : "";
+    }
+
+    private static String joinPath(String parent, String path) {
+        String result = StringUtils.strip(StringUtils.defaultString(parent), "/");
+        String child = StringUtils.strip(StringUtils.defaultString(path), "/");
+        if (!child.isEmpty()) {
+            result = result.isEmpty() ? child : result + "/" + child;
+        }
+        return "/" + result;
+    }
+
+    /**
+     * 资源方法的 HTTP 方法和路径，如 {@code GET /users/{id}}，只有 {@code @Path} 的子资源定位方法为 {@code *}
+     *
+     * @return 不是资源方法时返回 null
+     */
+    private static String getEndpoint(CtClass ctClass, CtMethod method) {
+        AnnotationsAttribute attribute = (AnnotationsAttribute) method.getMethodInfo2()
+                .getAttribute(AnnotationsAttribute.visibleTag);
+        if (attribute == null) return null;
+        String httpMethod = null;
+        for (String annotation : HTTP_METHOD_ANNOTATIONS) {
+            if (attribute.getAnnotation(annotation) != null) {
+                httpMethod = annotation.substring(annotation.lastIndexOf('.') + 1);
+                break;
+            }
+        }
+        String path = getPath(attribute);
+        if (httpMethod == null && path == null) return null;
+        String classPath = getPath((AnnotationsAttribute) ctClass.getClassFile2()
+                .getAttribute(AnnotationsAttribute.visibleTag));
+        return (httpMethod == null ? "*" : httpMethod) + " " + joinPath(classPath, path)
+                + " " + ctClass.getName() + "." + method.getName();
+    }
+
+    private static String literal(String value) {
+        return value == null ? "(String) null" : "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private boolean inPackages(String className) {
+        for (String pkg : packages) {
+            if (className.startsWith(pkg)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void enhance(ClassDraft description) throws Exception {
+        boolean inPackages = inPackages(description.className);
+        CtClass ctClass = makeClass(description);
+        int index = 0;
+        for (CtMethod method : ctClass.getDeclaredMethods()) {
+            int modifiers = method.getModifiers();
+            if (Modifier.isAbstract(modifiers) || Modifier.isNative(modifiers)
+                    || (method.getMethodInfo2().getAccessFlags() & (AccessFlag.SYNTHETIC | AccessFlag.BRIDGE)) != 0) {
+                continue;
+            }
+            String endpoint = getEndpoint(ctClass, method);
+            if (endpoint == null && !inPackages) continue;
+
+            String field = FIELD_PREFIX + index++;
+            ctClass.addField(CtField.make("private static final int " + field + " = "
+                    + PROFILER + ".register(" + literal(ctClass.getName() + "." + method.getName()
+                    + method.getSignature()) + ", " + literal(endpoint) + ");", ctClass));
+            method.insertBefore(PROFILER + ".enter(" + field + ");");
+            method.insertAfter(PROFILER + ".exit(" + field + ");", true);
+        }
+        if (index > 0) {
+            description.setEnhancedByteCode(ctClass.toBytecode());
+        }
+        ctClass.defrost();
+    }
+}
@@ -0,0 +1,163 @@
+package ameba.dev.classloading.enhancers;
+
+import ameba.db.model.Model;
+import ameba.dev.accessor.PropertyAccessor;
+import ameba.dev.accessor.PropertyAccessors;
+import ameba.dev.classloading.ClassCache;
+import ameba.dev.classloading.ClassDraft;
+import ameba.dev.classloading.ClassHierarchy;
+import com.google.common.collect.Lists;
+import javassist.*;
+import javassist.bytecode.Descriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 为模型生成 {@link PropertyAccessor} 实现类（类名为模型类名加 {@link PropertyAccessors#ACCESSOR_SUFFIX}），
+ * 通过 switch 调用 getter/setter，序列化及表单绑定不再需要反射
+ * <p>
+ * 需要在 ModelEnhancer 之后执行，生成的类不写入输出目录，由 {@link ClassCache#putGenerated} 随模型一起缓存，
+ * 由 ReloadClassLoader 从类缓存加载
+ *
+ * @author icode
+ */
+public class PropertyAccessorEnhancer extends Enhancer {
+    private static final Logger logger = LoggerFactory.getLogger(PropertyAccessorEnhancer.class);
+    private static final String MODEL_TYPE = Model.class.getName();
+
+    public PropertyAccessorEnhancer(Map<String, Object> properties) {
+        super(properties);
+    }
+
+    @Override
+    public void enhance(ClassDraft description) throws Exception {
+        if (description.className.endsWith(PropertyAccessors.ACCESSOR_SUFFIX)
+                || !ClassHierarchy.isSubclassOf(description.className, MODEL_TYPE)) {
+            return;
+        }
+        CtClass ctClass = makeClass(description);
+        if (Modifier.isAbstract(ctClass.getModifiers()) || !Modifier.isPublic(ctClass.getModifiers())) {
+            return;
+        }
+
+        List<Property> properties = Lists.newArrayList();
+        for (CtField field : getAllDeclaredFields(ctClass)) {
+            if (!isProperty(field)) continue;
+            CtClass type = field.getType();
+            CtMethod getter = getAccessor(ctClass, getGetterName(field), Descriptor.ofMethod(type, null));
+            if (getter == null) continue;
+            CtMethod setter = isFinal(field) ? null : getAccessor(ctClass, getSetterName(field),
+                    Descriptor.ofMethod(CtClass.voidType, new CtClass[]{type}));
+            properties.add(new Property(field.getName(), type, getter, setter));
+        }
+        if (properties.isEmpty()) return;
+
+        String accessorName = PropertyAccessors.getAccessorClassName(description.className);
+        CtClass old = getClassPool().getOrNull(accessorName);
+        if (old != null) old.detach();
+
+        CtClass accessor = getClassPool().makeClass(accessorName);
+        try {
+            accessor.setModifiers(Modifier.PUBLIC | Modifier.FINAL);
+            accessor.addInterface(getClassPool().get(PropertyAccessor.class.getName()));
+            accessor.setGenericSignature("Ljava/lang/Object;L"
+                    + PropertyAccessor.class.getName().replace('.', '/')
+                    + "<L" + description.className.replace('.', '/') + ";>;");
+            accessor.addConstructor(CtNewConstructor.defaultConstructor(accessor));
+            accessor.addField(CtField.make("private static final java.util.Map INDEX = new java.util.HashMap();",
+                    accessor));
+
+            StringBuilder init = new StringBuilder("{");
+            StringBuilder names = switchStart();
+            StringBuilder types = switchStart();
+            StringBuilder get = new StringBuilder("{")
+                    .append(description.className).append(" m = (").append(description.className).append(") bean;")
+                    .append("switch (index) {");
+            StringBuilder set = new StringBuilder(get);
+            for (int i = 0; i < properties.size(); i++) {
+                Property property = properties.get(i);
+                init.append("INDEX.put(\"").append(property.name).append("\", Integer.valueOf(").append(i).append("));");
+                names.append("case ").append(i).append(": return \"").append(property.name).append("\";");
+                types.append("case ").append(i).append(": return ").append(property.type.getName()).append(".class;");
+                get.append("case ").append(i).append(": return ").append(box(property.type, "m." + property.getter.getName() + "()")).append(";");
+                set.append("case ").append(i).append(": ");
+                if (property.setter == null) {
+                    set.append("throw new UnsupportedOperationException(\"").append(property.name).append("\");");
+                } else {
+                    set.append("m.").append(property.setter.getName()).append("(").append(unbox(property.type, "value"))
+                            .append("); return;");
+                }
+            }
+            init.append("}");
+            String outOfRange = "} throw new IndexOutOfBoundsException(String.valueOf(index));}";
+            names.append(outOfRange);
+            types.append(outOfRange);
+            get.append(outOfRange);
+            set.append(outOfRange);
+
+            accessor.makeClassInitializer().setBody(init.toString());
+            accessor.addMethod(CtNewMethod.make("public int size() {return " + properties.size() + ";}", accessor));
+            accessor.addMethod(CtNewMethod.make("public int indexOf(String name) {"
+                    + "Object i = INDEX.get(name);"
+                    + "return i == null ? -1 : ((Integer) i).intValue();}", accessor));
+            accessor.addMethod(CtNewMethod.make("public String getPropertyName(int index) " + names, accessor));
+            accessor.addMethod(CtNewMethod.make("public Class getPropertyType(int index) " + types, accessor));
+            accessor.addMethod(CtNewMethod.make("public Object get(Object bean, int index) " + get, accessor));
+            accessor.addMethod(CtNewMethod.make("public void set(Object bean, int index, Object value) " + set,
+                    accessor));
+            // 生成的类不需要再被增强
+            addAnnotation(getAnnotations(accessor), Enhanced.class);
+
+            ClassCache.putGenerated(description, accessorName, accessor.toBytecode());
+            logger.trace("generated property accessor {} with {} properties", accessorName, properties.size());
+        } finally {
+            accessor.detach();
+        }
+    }
+
+    private StringBuilder switchStart() {
+        return new StringBuilder("{switch (index) {");
+    }
+
+    private String box(CtClass type, String expr) {
+        if (type.isPrimitive()) {
+            return ((CtPrimitiveType) type).getWrapperName() + ".valueOf(" + expr + ")";
+        }
+        return expr;
+    }
+
+    private String unbox(CtClass type, String expr) {
+        if (type.isPrimitive()) {
+            CtPrimitiveType primitive = (CtPrimitiveType) type;
+            return "((" + primitive.getWrapperName() + ") " + expr + ")." + primitive.getGetMethodName() + "()";
+        }
+        return "(" + type.getName() + ") " + expr;
+    }
+
+    private CtMethod getAccessor(CtClass ctClass, String name, String desc) {
+        try {
+            CtMethod method = ctClass.getMethod(name, desc);
+            int modifiers = method.getModifiers();
+            return Modifier.isPublic(modifiers) && !Modifier.isStatic(modifiers) ? method : null;
+        } catch (NotFoundException e) {
+            return null;
+        }
+    }
+
+    private static class Property {
+        final String name;
+        final CtClass type;
+        final CtMethod getter;
+        final CtMethod setter;
+
+        Property(String name, CtClass type, CtMethod getter, CtMethod setter) {
+            this.name = name;
+            this.type = type;
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package ameba.dev.classloading.enhancers;
 
-import ameba.dev.classloading.ClassDescription;
+import ameba.dev.classloading.ClassDraft;
 import ameba.dev.classloading.EnhancerListener;
 import ameba.util.ClassUtils;
 import co.paralleluniverse.fibers.instrument.Log;
@@ -14,6 +14,11 @@ import java.io.InputStream;
 import java.util.Map;
 
 /**
+ * Quasar 字节码增强
+ * <p>
+ * 运行时的 verifyInstrumentation 默认关闭（{@code quasar.enhancer.verify}），改为增强时分析可挂起方法的调用，
+ * 报告写入 {@code generated-classes/ameba/quasar/}（{@code quasar.enhancer.analysis}，默认开启）
+ *
  * @author icode
  */
 public class QuasarEnhancer extends Enhancer {
@@ -21,11 +26,18 @@ public class QuasarEnhancer extends Enhancer {
     private static final String CFG_PREFIX = "quasar.enhancer.";
     private QuasarInstrumentor instrumentor;
     private ClassLoader loader;
+    private SuspendableAnalyzer analyzer;
 
     public QuasarEnhancer(Map<String, Object> properties) {
-        super(false, properties);
+        super(properties);
         instrumentor = new QuasarInstrumentor(true);
-        System.setProperty("co.paralleluniverse.fibers.verifyInstrumentation", "true");
+        // 运行时校验每次挂起都要遍历调用栈，默认关闭，由增强时的分析代替
+        if (PropertiesHelper.getValue(properties, CFG_PREFIX + "verify", false, null)) {
+            System.setProperty("co.paralleluniverse.fibers.verifyInstrumentation", "true");
+        }
+        if (PropertiesHelper.getValue(properties, CFG_PREFIX + "analysis", true, null)) {
+            analyzer = new SuspendableAnalyzer();
+        }
         instrumentor.setCheck(PropertiesHelper.getValue(properties, CFG_PREFIX + "check", false, null));
         instrumentor.setVerbose(PropertiesHelper.getValue(properties, CFG_PREFIX + "verbose", false, null));
         instrumentor.setDebug(PropertiesHelper.getValue(properties, CFG_PREFIX + "debug", false, null));
@@ -62,17 +74,27 @@ public class QuasarEnhancer extends Enhancer {
     }
 
     @Override
-    public void enhance(ClassDescription description) throws Exception {
+    protected String[] getConfigPrefixes() {
+        return new String[]{CFG_PREFIX};
+    }
+
+    @Override
+    public void enhance(ClassDraft description) throws Exception {
         if (!instrumentor.shouldInstrument(description.className))
             return;
         try (InputStream in = description.getEnhancedByteCodeStream()) {
+            if (analyzer != null) {
+                for (String problem : analyzer.analyze(description, description.getEnhancedByteCode())) {
+                    logger.warn("{}: {}", description.className, problem);
+                }
+            }
             final byte[] transformed = instrumentor.instrumentClass(
                     loader,
                     description.className,
                     in
             );
             if (transformed != null)
-                description.enhancedByteCode = transformed;
+                description.setEnhancedByteCode(transformed);
         }
     }
 }
@@ -0,0 +1,234 @@
+package ameba.dev.classloading.enhancers;
+
+import ameba.dev.classloading.ClassCache;
+import ameba.dev.classloading.ClassDescription;
+import ameba.dev.classloading.ClassDraft;
+import ameba.dev.classloading.ClassHierarchy;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import javassist.CtClass;
+import javassist.bytecode.*;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 增强时分析可挂起方法的调用关系，代替运行时的 verifyInstrumentation
+ * <p>
+ * 非可挂起方法中调用了可挂起方法时记录为问题，结果按类写入
+ * {@code generated-classes/ameba/quasar/}，报告同时记录分析时用到的各个类的可挂起方法摘要，
+ * 本类的字节码签名和这些摘要都未改变时直接沿用
+ *
+ * @author icode
+ */
+class SuspendableAnalyzer {
+    private static final Logger logger = LoggerFactory.getLogger(SuspendableAnalyzer.class);
+    private static final String SUSPEND_EXECUTION = "co.paralleluniverse.fibers.SuspendExecution";
+    private static final String SUSPENDABLE = "co.paralleluniverse.fibers.Suspendable";
+    private static final String SIGNATURE_PREFIX = "# signature ";
+    private static final String PROBLEM_PREFIX = "problem ";
+    private static final String DEPENDS_PREFIX = "depends ";
+    /**
+     * 各类的可挂起方法，应用类以类描述的签名判断是否过期
+     */
+    private final Map<String, Suspendables> suspendables = Maps.newConcurrentMap();
+
+    static File getReportFile(ClassDraft desc) {
+        if (desc.projectInfo == null) return null;
+        return desc.projectInfo.getOutputDirectory()
+                .resolve("../generated-classes/ameba/quasar/"
+                        .concat(desc.className.replace(".", "/"))
+                        .concat(".txt"))
+                .normalize().toFile();
+    }
+
+    private static boolean isSuspendable(MethodInfo method) {
+        ExceptionsAttribute exceptions = method.getExceptionsAttribute();
+        if (exceptions != null) {
+            for (String exception : exceptions.getExceptions()) {
+                if (SUSPEND_EXECUTION.equals(exception)) return true;
+            }
+        }
+        for (String tag : new String[]{AnnotationsAttribute.visibleTag, AnnotationsAttribute.invisibleTag}) {
+            AnnotationsAttribute attribute = (AnnotationsAttribute) method.getAttribute(tag);
+            if (attribute != null && attribute.getAnnotation(SUSPENDABLE) != null) return true;
+        }
+        return false;
+    }
+
+    private static String key(String name, String desc) {
+        return name + desc;
+    }
+
+    /**
+     * 分析类中的调用关系，签名与上次相同时直接使用已保存的结果
+     *
+     * @param desc     class description
+     * @param byteCode 未经 Quasar 增强的字节码
+     * @return 发现的问题
+     */
+    List<String> analyze(ClassDraft desc, byte[] byteCode) throws IOException {
+        File reportFile = getReportFile(desc);
+        List<String> cached = readReport(reportFile, desc.getSignature());
+        if (cached != null) return cached;
+
+        ClassFile classFile = new ClassFile(new DataInputStream(new ByteArrayInputStream(byteCode)));
+        suspendables.put(classFile.getName(), new Suspendables(desc.getSignature(), collectSuspendables(classFile)));
+
+        Map<String, String> depends = Maps.newTreeMap();
+        List<String> problems = Lists.newArrayList();
+        List<String> lines = Lists.newArrayList();
+        lines.add(SIGNATURE_PREFIX + desc.getSignature());
+        ConstPool cp = classFile.getConstPool();
+        for (Object m : classFile.getMethods()) {
+            MethodInfo method = (MethodInfo) m;
+            boolean suspendable = isSuspendable(classFile.getName(), method.getName(), method.getDescriptor(), depends);
+            if (suspendable) {
+                lines.add("suspendable " + key(method.getName(), method.getDescriptor()));
+                continue;
+            }
+            CodeAttribute code = method.getCodeAttribute();
+            if (code == null) continue;
+            CodeIterator iterator = code.iterator();
+            while (iterator.hasNext()) {
+                int pos;
+                try {
+                    pos = iterator.next();
+                } catch (BadBytecode e) {
+                    logger.trace("analyze " + desc.className + " error", e);
+                    break;
+                }
+                int op = iterator.byteAt(pos);
+                if (op != Opcode.INVOKEVIRTUAL && op != Opcode.INVOKESPECIAL
+                        && op != Opcode.INVOKESTATIC && op != Opcode.INVOKEINTERFACE) {
+                    continue;
+                }
+                int index = iterator.u16bitAt(pos + 1);
+                boolean itf = cp.getTag(index) == ConstPool.CONST_InterfaceMethodref;
+                String owner = itf ? cp.getInterfaceMethodrefClassName(index) : cp.getMethodrefClassName(index);
+                String name = itf ? cp.getInterfaceMethodrefName(index) : cp.getMethodrefName(index);
+                String type = itf ? cp.getInterfaceMethodrefType(index) : cp.getMethodrefType(index);
+                if (owner == null || owner.startsWith("[") || name.startsWith("<")) continue;
+                if (isSuspendable(owner, name, type, depends)) {
+                    String problem = key(method.getName(), method.getDescriptor())
+                            + " calls suspendable " + owner + "." + key(name, type)
+                            + " but is not suspendable";
+                    problems.add(problem);
+                    lines.add(PROBLEM_PREFIX + problem);
+                }
+            }
+        }
+        // 本类的可挂起方法由签名覆盖
+        depends.remove(classFile.getName());
+        depends.forEach((className, digest) -> lines.add(DEPENDS_PREFIX + className + ' ' + digest));
+        if (reportFile != null) {
+            FileUtils.writeLines(reportFile, StandardCharsets.UTF_8.name(), lines, "\n", false);
+        }
+        return problems;
+    }
+
+    private List<String> readReport(File reportFile, String signature) {
+        if (signature == null || reportFile == null || !reportFile.isFile()) return null;
+        try {
+            List<String> lines = FileUtils.readLines(reportFile, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !lines.get(0).equals(SIGNATURE_PREFIX + signature)) return null;
+            List<String> problems = Lists.newArrayList();
+            for (String line : lines) {
+                if (line.startsWith(PROBLEM_PREFIX)) {
+                    problems.add(line.substring(PROBLEM_PREFIX.length()));
+                } else if (line.startsWith(DEPENDS_PREFIX)) {
+                    String[] parts = StringUtils.split(line.substring(DEPENDS_PREFIX.length()), ' ');
+                    // 依赖的类的可挂起方法或父类型改变后重新分析
+                    if (parts.length != 2 || !parts[1].equals(digest(parts[0]))) return null;
+                }
+            }
+            return problems;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private boolean isSuspendable(String owner, String name, String desc, Map<String, String> depends) {
+        String key = key(name, desc);
+        depends.computeIfAbsent(owner, this::digest);
+        if (suspendables(owner).contains(key)) return true;
+        for (String type : ClassHierarchy.getSupertypes(owner)) {
+            depends.computeIfAbsent(type, this::digest);
+            if (suspendables(type).contains(key)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 类的可挂起方法及父类型的摘要
+     */
+    private String digest(String className) {
+        Hasher hasher = Hashing.murmur3_32().newHasher();
+        for (String method : Sets.newTreeSet(suspendables(className))) {
+            hasher.putUnencodedChars(method).putChar(';');
+        }
+        hasher.putChar('|');
+        for (String type : Sets.newTreeSet(ClassHierarchy.getSupertypes(className))) {
+            hasher.putUnencodedChars(type).putChar(';');
+        }
+        return hasher.hash().toString();
+    }
+
+    private Set<String> suspendables(String className) {
+        ClassDescription desc = ClassCache.lookup(className);
+        String signature = desc == null ? null : desc.getSnapshot().getSignature();
+        Suspendables cached = suspendables.get(className);
+        if (cached != null && Objects.equals(cached.signature, signature)) {
+            return cached.methods;
+        }
+        Set<String> methods = null;
+        byte[] byteCode = desc == null ? null : desc.getClassByteCode();
+        if (byteCode != null) {
+            try {
+                methods = collectSuspendables(new ClassFile(new DataInputStream(new ByteArrayInputStream(byteCode))));
+            } catch (IOException e) {
+                logger.trace("read class " + className + " error", e);
+            }
+        }
+        if (methods == null) {
+            CtClass ctClass = Enhancer.getClassPool().getOrNull(className);
+            methods = ctClass == null ? ImmutableSet.of() : collectSuspendables(ctClass.getClassFile2());
+        }
+        suspendables.put(className, new Suspendables(signature, methods));
+        return methods;
+    }
+
+    private Set<String> collectSuspendables(ClassFile classFile) {
+        ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+        for (Object m : classFile.getMethods()) {
+            MethodInfo method = (MethodInfo) m;
+            if (isSuspendable(method)) builder.add(key(method.getName(), method.getDescriptor()));
+        }
+        return builder.build();
+    }
+
+    private static class Suspendables {
+        final String signature;
+        final Set<String> methods;
+
+        Suspendables(String signature, Set<String> methods) {
+            this.signature = signature;
+            this.methods = methods;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ameba.dev.classloading.protocol.amebaclass;
+
+import ameba.dev.classloading.ClassBytes;
+import ameba.dev.compiler.JavaSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+
+/**
+ * {@code amebaclass:} 协议的处理器，读取 {@link ClassBytes} 中的字节码
+ * <p>
+ * 由 {@link ClassBytes} 创建 URL 时直接传入，不通过 {@code java.protocol.handler.pkgs} 全局注册
+ *
+ * @author icode
+ */
+public class Handler extends URLStreamHandler {
+
+    public static String toClassName(URL url) {
+        String path = url.getPath();
+        if (path.startsWith("/")) path = path.substring(1);
+        return path.substring(0, path.length() - JavaSource.CLASS_EXTENSION.length()).replace("/", ".");
+    }
+
+    @Override
+    protected URLConnection openConnection(URL url) {
+        return new URLConnection(url) {
+            private byte[] bytes;
+
+            @Override
+            public void connect() throws IOException {
+                if (bytes == null) {
+                    bytes = ClassBytes.get(toClassName(url));
+                    if (bytes == null) {
+                        throw new FileNotFoundException(url.toExternalForm());
+                    }
+                    connected = true;
+                }
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                connect();
+                return new ByteArrayInputStream(bytes);
+            }
+
+            @Override
+            public long getContentLengthLong() {
+                try {
+                    connect();
+                } catch (IOException e) {
+                    return -1;
+                }
+                return bytes.length;
+            }
+        };
+    }
+}
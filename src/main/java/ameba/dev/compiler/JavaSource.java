@@ -171,6 +171,12 @@ public class JavaSource {
             this.className = className;
         }
 
+        FoundInfo(String className, ProjectInfo projectInfo, File javaFile) {
+            this.className = className;
+            this.projectInfo = projectInfo;
+            this.javaFile = javaFile;
+        }
+
         public ProjectInfo getProjectInfo() {
             return projectInfo;
         }
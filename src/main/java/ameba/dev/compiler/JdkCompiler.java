@@ -8,6 +8,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.primitives.Ints;
+import com.sun.source.util.JavacTask;
 import org.apache.commons.lang3.BooleanUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -109,6 +110,13 @@ public class JdkCompiler extends JavaCompiler {
         CompilationTask task = jc.getTask(null, fileManager, diagnosticCollector, options,
                 null, fileList);
 
+        // 编译时收集注释信息，MetaEnhancer 无需再解析源文件
+        SourceMetaCollector metaCollector = null;
+        if (task instanceof JavacTask) {
+            metaCollector = new SourceMetaCollector((JavacTask) task);
+            ((JavacTask) task).addTaskListener(metaCollector);
+        }
+
         Boolean result = task.call();
 
         Set<JavaSource> resultSet;
@@ -162,6 +170,9 @@ public class JdkCompiler extends JavaCompiler {
                 if (javaFileObject.getByteCode() != null) {
                     JavaSource fixedSource = new JavaSource(entry.getKey(), source.getInputDir(), source.getOutputDir());
                     fixedSource.setByteCode(javaFileObject.getByteCode());
+                    if (metaCollector != null) {
+                        saveSourceMeta(entry.getKey(), source, metaCollector.get(entry.getKey()));
+                    }
                     resultSet.add(fixedSource);
                 }
             }
@@ -169,6 +180,19 @@ public class JdkCompiler extends JavaCompiler {
         return resultSet;
     }
 
+    private void saveSourceMeta(String className, JavaSource source, SourceMeta meta) {
+        if (meta == null) {
+            // 匿名类等没有注释信息，同样保存一个空的 meta，避免增强时回退到解析源文件
+            meta = new SourceMeta(className);
+        }
+        meta.setSourceLastModified(source.getJavaFile().lastModified());
+        try {
+            meta.write(SourceMeta.getMetaFile(source.getOutputDir(), className));
+        } catch (Exception e) {
+            logger.warn("save source meta error", e);
+        }
+    }
+
     private static final class JavaFileObjectImpl extends SimpleJavaFileObject {
 
         private final JavaSource source;
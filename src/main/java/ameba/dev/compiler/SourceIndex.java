@@ -0,0 +1,132 @@
+package ameba.dev.compiler;
+
+import ameba.dev.info.ProjectInfo;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 类名到源文件及所在模块的索引
+ * <p>
+ * 第一次使用时遍历所有模块的源文件目录建立，之后由变更检测维护；
+ * 查找不到的类名即不是应用的类，不再逐个模块探测文件是否存在
+ *
+ * @author icode
+ */
+public class SourceIndex {
+    private static final Logger logger = LoggerFactory.getLogger(SourceIndex.class);
+    private static final Map<ProjectInfo, SourceIndex> INDEXES = Maps.newConcurrentMap();
+
+    private final ProjectInfo projectInfo;
+    private final Map<String, Source> sources = Maps.newConcurrentMap();
+
+    private SourceIndex(ProjectInfo projectInfo) {
+        this.projectInfo = projectInfo;
+        build();
+    }
+
+    public static SourceIndex get(ProjectInfo projectInfo) {
+        return INDEXES.computeIfAbsent(projectInfo, SourceIndex::new);
+    }
+
+    /**
+     * @param className class name
+     * @return 源文件所在的顶层类名，内部类取外部类
+     */
+    public static String getTopLevelName(String className) {
+        int index = className.indexOf('$');
+        return index < 0 ? className : className.substring(0, index);
+    }
+
+    private void build() {
+        long start = System.currentTimeMillis();
+        projectInfo.forEach(info -> {
+            Path sourceDir = info.getSourceDirectory();
+            if (sourceDir == null || !Files.isDirectory(sourceDir)) return true;
+            try {
+                Files.walkFileTree(sourceDir, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        String path = sourceDir.relativize(file).toString();
+                        if (path.endsWith(JavaSource.JAVA_EXTENSION)) {
+                            String className = path.substring(0, path.length() - JavaSource.JAVA_EXTENSION.length())
+                                    .replace(File.separator, ".");
+                            sources.putIfAbsent(className, new Source(info, file.toFile()));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                logger.error("walk file tree has error", e);
+            }
+            return true;
+        });
+        logger.trace("built source index, {} sources in {}ms", sources.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @param className class name
+     * @return 找到的源文件信息，不是应用的类时返回 null
+     */
+    public JavaSource.FoundInfo find(String className) {
+        Source source = sources.get(getTopLevelName(className));
+        if (source == null) return null;
+        return new JavaSource.FoundInfo(className, source.projectInfo, source.javaFile);
+    }
+
+    public boolean contains(String className) {
+        return sources.containsKey(getTopLevelName(className));
+    }
+
+    /**
+     * 变更检测发现源文件时调用
+     *
+     * @param info      所在模块
+     * @param className class name
+     * @param javaFile  java file
+     */
+    public void add(ProjectInfo info, String className, File javaFile) {
+        Source source = sources.get(className);
+        // 多个模块中有同名类时和之前一样以先找到的为准
+        if (source == null || !source.javaFile.equals(javaFile) && !source.javaFile.isFile()) {
+            sources.put(className, new Source(info, javaFile));
+        }
+    }
+
+    public void remove(String className) {
+        sources.remove(getTopLevelName(className));
+    }
+
+    /**
+     * 变更检测遍历完所有源文件后调用，移除已删除的源文件
+     *
+     * @param classNames 现有源文件的类名
+     */
+    public void retain(Set<String> classNames) {
+        sources.keySet().retainAll(classNames);
+    }
+
+    public int size() {
+        return sources.size();
+    }
+
+    private static class Source {
+        private final ProjectInfo projectInfo;
+        private final File javaFile;
+
+        Source(ProjectInfo projectInfo, File javaFile) {
+            this.projectInfo = projectInfo;
+            this.javaFile = javaFile;
+        }
+    }
+}
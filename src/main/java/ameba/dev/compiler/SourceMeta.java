@@ -0,0 +1,180 @@
+package ameba.dev.compiler;
+
+import ameba.exception.UnexpectedException;
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 编译时从源码中收集的注释及参数名信息，保存在字节码旁供 MetaEnhancer 使用
+ *
+ * @author icode
+ */
+public class SourceMeta implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger = LoggerFactory.getLogger(SourceMeta.class);
+    private static final String META_EXTENSION = ".meta";
+
+    private final String className;
+    private long sourceLastModified;
+    private Member type;
+    private List<Member> fields = Lists.newArrayList();
+    private List<Member> methods = Lists.newArrayList();
+    private List<Member> constructors = Lists.newArrayList();
+
+    public SourceMeta(String className) {
+        this.className = className;
+    }
+
+    public static File getMetaFile(Path outputDirectory, String className) {
+        return outputDirectory
+                .resolve("../generated-classes/ameba/meta/"
+                        .concat(className.replace(".", "/"))
+                        .concat(META_EXTENSION))
+                .normalize().toFile();
+    }
+
+    public static File getMetaFile(File outputDirectory, String className) {
+        return getMetaFile(outputDirectory.toPath(), className);
+    }
+
+    /**
+     * 读取编译时保存的信息，源文件在编译后被修改过则返回 null
+     *
+     * @param metaFile   meta file
+     * @param sourceFile java source file
+     * @return source meta or null
+     */
+    public static SourceMeta read(File metaFile, File sourceFile) {
+        if (metaFile == null || !metaFile.isFile()) return null;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(metaFile)))) {
+            SourceMeta meta = (SourceMeta) in.readObject();
+            if (sourceFile != null && sourceFile.lastModified() != meta.sourceLastModified) {
+                return null;
+            }
+            return meta;
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            logger.trace("read source meta error", e);
+            FileUtils.deleteQuietly(metaFile);
+            return null;
+        }
+    }
+
+    public void write(File metaFile) {
+        try {
+            FileUtils.forceMkdir(metaFile.getParentFile());
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(metaFile)))) {
+                out.writeObject(this);
+            }
+        } catch (IOException e) {
+            throw new UnexpectedException("write source meta file error", e);
+        }
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public long getSourceLastModified() {
+        return sourceLastModified;
+    }
+
+    public void setSourceLastModified(long sourceLastModified) {
+        this.sourceLastModified = sourceLastModified;
+    }
+
+    public Member getType() {
+        return type;
+    }
+
+    public void setType(Member type) {
+        this.type = type;
+    }
+
+    public List<Member> getFields() {
+        return fields;
+    }
+
+    public List<Member> getMethods() {
+        return methods;
+    }
+
+    public List<Member> getConstructors() {
+        return constructors;
+    }
+
+    public static class Member implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String name;
+        private String comment;
+        private List<Tag> tags = Collections.emptyList();
+        private List<String> parameterTypes = Collections.emptyList();
+        private List<String> parameterNames = Collections.emptyList();
+
+        public Member(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getComment() {
+            return comment;
+        }
+
+        public void setComment(String comment) {
+            this.comment = comment;
+        }
+
+        public List<Tag> getTags() {
+            return tags;
+        }
+
+        public void setTags(List<Tag> tags) {
+            this.tags = tags;
+        }
+
+        public List<String> getParameterTypes() {
+            return parameterTypes;
+        }
+
+        public void setParameterTypes(List<String> parameterTypes) {
+            this.parameterTypes = parameterTypes;
+        }
+
+        public List<String> getParameterNames() {
+            return parameterNames;
+        }
+
+        public void setParameterNames(List<String> parameterNames) {
+            this.parameterNames = parameterNames;
+        }
+    }
+
+    public static class Tag implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String name;
+        private final String value;
+
+        public Tag(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+}
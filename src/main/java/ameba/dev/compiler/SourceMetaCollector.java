@@ -0,0 +1,155 @@
+package ameba.dev.compiler;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
+import javax.lang.model.util.Elements;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 在 javac 分析阶段收集类、字段、方法的注释及参数名，避免增强时再次解析源文件
+ *
+ * @author icode
+ */
+public class SourceMetaCollector implements TaskListener {
+    private final Map<String, SourceMeta> metas = Maps.newHashMap();
+    private final Elements elements;
+
+    public SourceMetaCollector(JavacTask task) {
+        this.elements = task.getElements();
+    }
+
+    static List<SourceMeta.Tag> parseTags(List<String> lines) {
+        List<SourceMeta.Tag> tags = Lists.newArrayList();
+        StringBuilder value = null;
+        String name = null;
+        for (String line : lines) {
+            if (line.startsWith("@")) {
+                if (name != null) {
+                    tags.add(new SourceMeta.Tag(name, value.toString().trim()));
+                }
+                int index = StringUtils.indexOfAny(line, ' ', '\t');
+                name = index < 0 ? line.substring(1) : line.substring(1, index);
+                value = new StringBuilder(index < 0 ? "" : line.substring(index + 1));
+            } else if (name != null) {
+                value.append('\n').append(line);
+            }
+        }
+        if (name != null) {
+            tags.add(new SourceMeta.Tag(name, value.toString().trim()));
+        }
+        return tags;
+    }
+
+    @Override
+    public void started(TaskEvent e) {
+    }
+
+    @Override
+    public void finished(TaskEvent e) {
+        if (e.getKind() == TaskEvent.Kind.ANALYZE && e.getTypeElement() != null) {
+            collect(e.getTypeElement());
+        }
+    }
+
+    public SourceMeta get(String className) {
+        return metas.get(className);
+    }
+
+    private void collect(TypeElement typeElement) {
+        String className = elements.getBinaryName(typeElement).toString();
+        if (metas.containsKey(className)) return;
+        SourceMeta meta = new SourceMeta(className);
+        meta.setType(member(typeElement.getSimpleName().toString(), typeElement));
+        for (Element element : typeElement.getEnclosedElements()) {
+            switch (element.getKind()) {
+                case FIELD:
+                case ENUM_CONSTANT:
+                    if (element.getModifiers().contains(Modifier.PUBLIC)) {
+                        meta.getFields().add(member(element.getSimpleName().toString(), element));
+                    }
+                    break;
+                case METHOD:
+                    meta.getMethods().add(executable((ExecutableElement) element));
+                    break;
+                case CONSTRUCTOR:
+                    meta.getConstructors().add(executable((ExecutableElement) element));
+                    break;
+                case CLASS:
+                case INTERFACE:
+                case ENUM:
+                case ANNOTATION_TYPE:
+                    collect((TypeElement) element);
+                    break;
+                default:
+            }
+        }
+        metas.put(className, meta);
+    }
+
+    private SourceMeta.Member executable(ExecutableElement element) {
+        SourceMeta.Member member = member(element.getSimpleName().toString(), element);
+        List<String> parameterTypes = Lists.newArrayList();
+        List<String> parameterNames = Lists.newArrayList();
+        List<? extends VariableElement> parameters = element.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            VariableElement parameter = parameters.get(i);
+            TypeMirror type = parameter.asType();
+            // 可变参数与 qdox 相同只记录元素类型
+            if (element.isVarArgs() && i == parameters.size() - 1) {
+                type = ((ArrayType) type).getComponentType();
+            }
+            parameterTypes.add(typeName(type));
+            parameterNames.add(parameter.getSimpleName().toString());
+        }
+        member.setParameterTypes(parameterTypes);
+        member.setParameterNames(parameterNames);
+        return member;
+    }
+
+    /**
+     * 与 qdox 的 getFullyQualifiedName 相同：去掉泛型参数，内部类使用二进制名，类型变量只保留名称
+     */
+    private String typeName(TypeMirror type) {
+        switch (type.getKind()) {
+            case ARRAY:
+                return typeName(((ArrayType) type).getComponentType()) + "[]";
+            case DECLARED:
+                return elements.getBinaryName((TypeElement) ((DeclaredType) type).asElement()).toString();
+            case TYPEVAR:
+                return ((TypeVariable) type).asElement().getSimpleName().toString();
+            default:
+                return type.toString();
+        }
+    }
+
+    private SourceMeta.Member member(String name, Element element) {
+        SourceMeta.Member member = new SourceMeta.Member(name);
+        String doc = elements.getDocComment(element);
+        if (StringUtils.isNotBlank(doc)) {
+            List<String> comment = Lists.newArrayList();
+            List<String> tags = Lists.newArrayList();
+            for (String line : StringUtils.split(StringUtils.remove(doc, '\r'), '\n')) {
+                line = line.trim();
+                if (line.startsWith("@") || !tags.isEmpty()) {
+                    tags.add(line);
+                } else {
+                    comment.add(line);
+                }
+            }
+            member.setComment(StringUtils.trimToNull(StringUtils.join(comment, '\n')));
+            member.setTags(parseTags(tags));
+        }
+        return member;
+    }
+}
@@ -0,0 +1,24 @@
+package ameba.dev.profiling;
+
+import java.util.List;
+
+/**
+ * @author icode
+ */
+public class EndpointProfile {
+    private final String endpoint;
+    private final List<MethodProfile> methods;
+
+    public EndpointProfile(String endpoint, List<MethodProfile> methods) {
+        this.endpoint = endpoint;
+        this.methods = methods;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public List<MethodProfile> getMethods() {
+        return methods;
+    }
+}
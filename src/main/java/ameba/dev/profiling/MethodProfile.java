@@ -0,0 +1,66 @@
+package ameba.dev.profiling;
+
+/**
+ * @author icode
+ */
+public class MethodProfile {
+    private final String method;
+    private final long count;
+    private final long totalNanos;
+    private final long selfNanos;
+    private final long[] histogram;
+
+    public MethodProfile(String method, long count, long totalNanos, long selfNanos, long[] histogram) {
+        this.method = method;
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.selfNanos = selfNanos;
+        this.histogram = histogram;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getSelfNanos() {
+        return selfNanos;
+    }
+
+    public long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    /**
+     * 根据直方图估算的百分位耗时（所在分桶的上界）
+     *
+     * @param percentile 0 - 100
+     * @return nanos
+     */
+    public long getPercentileNanos(double percentile) {
+        long target = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= target && seen > 0) {
+                return i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+        }
+        return 0;
+    }
+
+    public long getP50Nanos() {
+        return getPercentileNanos(50);
+    }
+
+    public long getP99Nanos() {
+        return getPercentileNanos(99);
+    }
+}
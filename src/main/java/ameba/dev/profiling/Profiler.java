@@ -0,0 +1,226 @@
+package ameba.dev.profiling;
+
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link ameba.dev.classloading.enhancers.ProfilingEnhancer} 插入的计时探针
+ * <p>
+ * 每个线程维护调用栈计算方法的总耗时及自身耗时，按所在的接口方法（最外层的资源方法）分别统计。
+ * 统计使用 {@link LongAdder}，直方图按耗时的 2 的幂分桶，记录时不加锁
+ *
+ * @author icode
+ */
+public class Profiler {
+    /**
+     * 不在任何接口方法内的调用
+     */
+    public static final int NO_ENDPOINT = 0;
+    private static final Object LOCK = new Object();
+    private static final ThreadLocal<Frames> FRAMES = ThreadLocal.withInitial(Frames::new);
+    /**
+     * 注册信息整体替换，读取时总是得到长度一致的名称和统计
+     */
+    private static volatile Registry registry = new Registry(
+            new String[]{"<none>"}, new String[]{null}, new MethodStats[][]{new MethodStats[0]});
+
+    private Profiler() {
+    }
+
+    /**
+     * 兼容旧版本增强的类
+     *
+     * @param name     method signature
+     * @param endpoint 是否为 JAX-RS 资源方法
+     * @return method id
+     */
+    public static int register(String name, boolean endpoint) {
+        return register(name, endpoint ? name : null);
+    }
+
+    /**
+     * 由增强后的类在初始化时调用
+     *
+     * @param name     method signature
+     * @param endpoint JAX-RS 资源方法的 HTTP 方法和路径，不是资源方法时为 null
+     * @return method id
+     */
+    public static int register(String name, String endpoint) {
+        synchronized (LOCK) {
+            Registry r = registry;
+            int index = Arrays.asList(r.names).indexOf(name);
+            if (index > 0) {
+                if (r.endpoints[index] == null && endpoint != null) {
+                    String[] newEndpoints = r.endpoints.clone();
+                    newEndpoints[index] = endpoint;
+                    registry = new Registry(r.names, newEndpoints, r.stats);
+                }
+                return index;
+            }
+            int id = r.names.length;
+            String[] newNames = Arrays.copyOf(r.names, id + 1);
+            newNames[id] = name;
+            String[] newEndpoints = Arrays.copyOf(r.endpoints, id + 1);
+            newEndpoints[id] = endpoint;
+            MethodStats[][] newStats = Arrays.copyOf(r.stats, id + 1);
+            newStats[id] = new MethodStats[0];
+            registry = new Registry(newNames, newEndpoints, newStats);
+            return id;
+        }
+    }
+
+    public static void enter(int id) {
+        FRAMES.get().push(id, System.nanoTime());
+    }
+
+    public static void exit(int id) {
+        long now = System.nanoTime();
+        Frames frames = FRAMES.get();
+        // 异常等原因导致栈不匹配时丢弃多余的帧
+        while (frames.depth > 0 && frames.ids[frames.depth - 1] != id) {
+            frames.pop(now);
+        }
+        if (frames.depth == 0) return;
+        int endpoint = frames.endpoint;
+        long total = now - frames.starts[frames.depth - 1];
+        long self = total - frames.children[frames.depth - 1];
+        frames.pop(now);
+        get(endpoint, id).record(total, self);
+    }
+
+    public static void reset() {
+        synchronized (LOCK) {
+            Registry r = registry;
+            MethodStats[][] newStats = new MethodStats[r.names.length][];
+            Arrays.fill(newStats, new MethodStats[0]);
+            registry = new Registry(r.names, r.endpoints, newStats);
+        }
+    }
+
+    /**
+     * 按接口方法分组的统计快照
+     *
+     * @return 每个接口方法（包括 {@link #NO_ENDPOINT}）内各方法的统计
+     */
+    public static List<EndpointProfile> snapshot() {
+        Registry r = registry;
+        List<EndpointProfile> result = Lists.newArrayList();
+        for (int endpoint = 0; endpoint < r.stats.length; endpoint++) {
+            MethodStats[] row = r.stats[endpoint];
+            List<MethodProfile> methods = Lists.newArrayList();
+            // 行在注册新方法后才扩展，不会超过名称的数量
+            for (int id = 0; id < row.length && id < r.names.length; id++) {
+                MethodStats s = row[id];
+                if (s != null && s.count.sum() > 0) {
+                    methods.add(s.snapshot(r.names[id]));
+                }
+            }
+            if (!methods.isEmpty()) {
+                methods.sort((a, b) -> Long.compare(b.getSelfNanos(), a.getSelfNanos()));
+                String name = r.endpoints[endpoint] != null ? r.endpoints[endpoint] : r.names[endpoint];
+                result.add(new EndpointProfile(name, methods));
+            }
+        }
+        return result;
+    }
+
+    private static MethodStats get(int endpoint, int id) {
+        MethodStats[] row = registry.stats[endpoint];
+        MethodStats s = id < row.length ? row[id] : null;
+        if (s == null) {
+            synchronized (LOCK) {
+                Registry r = registry;
+                row = r.stats[endpoint];
+                if (id >= row.length) {
+                    row = Arrays.copyOf(row, r.names.length);
+                    r.stats[endpoint] = row;
+                }
+                s = row[id];
+                if (s == null) {
+                    s = new MethodStats();
+                    row[id] = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    private static class Registry {
+        final String[] names;
+        final String[] endpoints;
+        final MethodStats[][] stats;
+
+        Registry(String[] names, String[] endpoints, MethodStats[][] stats) {
+            this.names = names;
+            this.endpoints = endpoints;
+            this.stats = stats;
+        }
+    }
+
+    private static class Frames {
+        int[] ids = new int[64];
+        long[] starts = new long[64];
+        long[] children = new long[64];
+        int depth;
+        int endpoint = NO_ENDPOINT;
+        int endpointDepth = -1;
+
+        void push(int id, long start) {
+            if (depth == ids.length) {
+                ids = Arrays.copyOf(ids, depth * 2);
+                starts = Arrays.copyOf(starts, depth * 2);
+                children = Arrays.copyOf(children, depth * 2);
+            }
+            if (endpoint == NO_ENDPOINT && registry.endpoints[id] != null) {
+                endpoint = id;
+                endpointDepth = depth;
+            }
+            ids[depth] = id;
+            starts[depth] = start;
+            children[depth] = 0;
+            depth++;
+        }
+
+        void pop(long now) {
+            depth--;
+            if (depth > 0) {
+                children[depth - 1] += now - starts[depth];
+            }
+            if (depth == endpointDepth) {
+                endpoint = NO_ENDPOINT;
+                endpointDepth = -1;
+            }
+        }
+    }
+
+    private static class MethodStats {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAdder selfNanos = new LongAdder();
+        final LongAdder[] histogram = new LongAdder[64];
+
+        MethodStats() {
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = new LongAdder();
+            }
+        }
+
+        void record(long total, long self) {
+            count.increment();
+            totalNanos.add(total);
+            selfNanos.add(self);
+            histogram[63 - Long.numberOfLeadingZeros(Math.max(total, 1))].increment();
+        }
+
+        MethodProfile snapshot(String name) {
+            long[] buckets = new long[histogram.length];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = histogram[i].sum();
+            }
+            return new MethodProfile(name, count.sum(), totalNanos.sum(), selfNanos.sum(), buckets);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package ameba.dev.profiling;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.util.List;
+
+/**
+ * 开发模式下查看各接口的方法耗时
+ *
+ * @author icode
+ */
+@Path("__dev/profiling")
+@Produces(MediaType.APPLICATION_JSON)
+public class ProfilingResource {
+
+    @GET
+    public List<EndpointProfile> get() {
+        return Profiler.snapshot();
+    }
+
+    @DELETE
+    public void reset() {
+        Profiler.reset();
+    }
+}
@@ -0,0 +1,66 @@
+package ameba.dev.accessor;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author icode
+ */
+public class PropertyAccessorsTest {
+
+    @Test
+    public void fallsBackToReflection() {
+        assertNull(PropertyAccessors.get(Bean.class));
+        assertFalse(PropertyAccessors.has(Bean.class));
+        PropertyAccessor<Bean> accessor = PropertyAccessors.of(Bean.class);
+        assertNotNull(accessor);
+        assertSame(accessor, PropertyAccessors.of(Bean.class));
+        assertEquals(2, accessor.size());
+        assertEquals(-1, accessor.indexOf("missing"));
+    }
+
+    @Test
+    public void bindAndToMap() {
+        Bean bean = PropertyAccessors.bind(new Bean(), ImmutableMap.of("name", "a", "count", 2, "missing", 1));
+        assertEquals("a", bean.getName());
+        assertEquals(2, bean.getCount());
+        Map<String, Object> values = PropertyAccessors.toMap(bean);
+        assertEquals(ImmutableMap.of("count", 2, "name", "a"), values);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void readOnlyProperty() {
+        PropertyAccessors.of(ReadOnly.class).set(new ReadOnly(), "value", 1);
+    }
+
+    public static class Bean {
+        private String name;
+        private int count;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+    }
+
+    public static class ReadOnly {
+        public int getValue() {
+            return 0;
+        }
+    }
+}
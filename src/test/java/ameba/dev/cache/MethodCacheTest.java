@@ -0,0 +1,60 @@
+package ameba.dev.cache;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author icode
+ */
+public class MethodCacheTest {
+
+    @Test
+    public void longKeysEvictWithinMaxSize() {
+        MethodCache cache = new MethodCache("t", 16, 0, TimeUnit.MILLISECONDS);
+        for (long i = 0; i < 100; i++) {
+            cache.put(i, "v" + i);
+        }
+        assertEquals(16, cache.size());
+        assertEquals(84, cache.getEvictionCount());
+        assertEquals("v99", cache.get(99L));
+    }
+
+    @Test
+    public void objectKeysCountEvictions() {
+        MethodCache cache = new MethodCache("t", 4, 0, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 10; i++) {
+            cache.put(MethodCache.key(new Object[]{"k" + i, i}), i);
+        }
+        assertTrue(cache.getEvictionCount() >= 6);
+    }
+
+    @Test
+    public void nullResultIsCached() {
+        MethodCache cache = new MethodCache("t", 4, 0, TimeUnit.MILLISECONDS);
+        Object stored = cache.put(1L, null);
+        assertSame(stored, cache.get(1L));
+        assertNull(MethodCache.value(cache.get(1L)));
+    }
+
+    @Test
+    public void instancesHaveSeparateCaches() {
+        MethodCache cache = new MethodCache("t", 4, 0, TimeUnit.MILLISECONDS);
+        Object a = new Object();
+        Object b = new Object();
+        assertSame(cache.of(a), cache.of(a));
+        assertNotSame(cache.of(a), cache.of(b));
+        cache.of(a).put(1L, "a");
+        assertNull(cache.of(b).get(1L));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
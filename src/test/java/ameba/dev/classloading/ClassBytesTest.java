@@ -0,0 +1,31 @@
+package ameba.dev.classloading;
+
+import ameba.dev.classloading.protocol.amebaclass.Handler;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author icode
+ */
+public class ClassBytesTest {
+
+    @Test
+    public void urlRoundTrip() throws Exception {
+        URL url = ClassBytes.toURL(ClassBytes.PROTOCOL + ":/a/b/C.class");
+        URL parsed = ClassBytes.toURL(url.toString());
+        assertEquals(url, parsed);
+        assertEquals("a.b.C", Handler.toClassName(parsed));
+        // 不注册全局的协议处理器包
+        assertNull(System.getProperty("java.protocol.handler.pkgs"));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void missingClass() throws Exception {
+        ClassBytes.toURL(ClassBytes.PROTOCOL + ":/not/Loaded.class").openStream();
+    }
+}
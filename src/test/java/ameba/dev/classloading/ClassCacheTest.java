@@ -0,0 +1,97 @@
+package ameba.dev.classloading;
+
+import ameba.dev.info.ProjectInfo;
+import javassist.ClassPool;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author icode
+ */
+public class ClassCacheTest {
+    private static final String OWNER = "app.model.Owner";
+    private static final String ACCESSOR = OWNER + "$$PropertyAccessor";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void disableGc() {
+        System.setProperty("ameba.dev.enhancedCache.gc", "false");
+    }
+
+    private static byte[] makeClass(String name) throws Exception {
+        return new ClassPool(true).makeClass(name).toBytecode();
+    }
+
+    /**
+     * 模拟重新启动，内存中的类描述全部丢失，只剩缓存包
+     */
+    @SuppressWarnings("unchecked")
+    private static void forgetDescriptions() throws Exception {
+        Field field = ClassCache.class.getDeclaredField("classCache");
+        field.setAccessible(true);
+        ((Map<String, ClassDescription>) field.get(null)).clear();
+    }
+
+    private ProjectInfo newProject() throws Exception {
+        File base = folder.newFolder("project");
+        File sourceDir = new File(base, "src/main/java");
+        File outputDir = new File(base, "target/classes");
+        File javaFile = new File(sourceDir, OWNER.replace(".", "/") + ".java");
+        File classFile = new File(outputDir, OWNER.replace(".", "/") + ".class");
+        assertTrue(javaFile.getParentFile().mkdirs());
+        assertTrue(classFile.getParentFile().mkdirs());
+        Files.write(javaFile.toPath(), "package app.model; public class Owner {}".getBytes("UTF-8"));
+        Files.write(classFile.toPath(), makeClass(OWNER));
+
+        Model model = new Model();
+        model.setPomFile(new File(base, "pom.xml"));
+        Build build = new Build();
+        build.setSourceDirectory(sourceDir.getPath());
+        build.setOutputDirectory(outputDir.getPath());
+        model.setBuild(build);
+        return ProjectInfo.create(null, model);
+    }
+
+    @Test
+    public void generatedClassSurvivesRestartAndCompaction() throws Exception {
+        ProjectInfo info = newProject();
+        ReloadClassLoader loader = new ReloadClassLoader(info);
+        ClassCache cache = loader.getClassCache();
+        ClassDescription owner = cache.get(OWNER);
+        assertNotNull(owner);
+        ClassDraft draft = owner.draft();
+        draft.setEnhancedByteCode(draft.getClassByteCode());
+        owner.publish(draft);
+        ClassCache.putGenerated(draft, ACCESSOR, makeClass(ACCESSOR));
+        cache.writeCache(owner);
+        assertEquals(ACCESSOR, loader.loadClass(ACCESSOR).getName());
+
+        // 重新加载后所属类的类描述先于生成的类读取，生成的类不能被当作所属类源文件中的普通类
+        forgetDescriptions();
+        loader = new ReloadClassLoader(info);
+        assertNotNull(loader.getClassCache().get(OWNER));
+        assertEquals(ACCESSOR, loader.loadClass(ACCESSOR).getName());
+
+        // 整理缓存包时生成的类按所属类的当前版本保留
+        loader.getClassCache().collectGarbage();
+        forgetDescriptions();
+        loader.getClassCache().collectGarbage();
+        loader = new ReloadClassLoader(info);
+        assertEquals(ACCESSOR, loader.loadClass(ACCESSOR).getName());
+    }
+}
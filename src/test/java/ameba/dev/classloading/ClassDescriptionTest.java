@@ -0,0 +1,137 @@
+package ameba.dev.classloading;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author icode
+ */
+public class ClassDescriptionTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ClassDescription newDescription(File classFile) {
+        ClassDescription desc = new ClassDescription() {
+            @Override
+            public void refresh() {
+            }
+
+            @Override
+            public void destroy() {
+            }
+        };
+        desc.className = "a.A";
+        desc.classFile = classFile;
+        return desc;
+    }
+
+    @Test
+    public void releaseBytesReadFromClassFile() throws Exception {
+        File classFile = folder.newFile("A.class");
+        Files.write(classFile.toPath(), new byte[]{1, 2, 3});
+        ClassDescription desc = newDescription(classFile);
+        assertArrayEquals(new byte[]{1, 2, 3}, desc.getClassByteCode());
+        assertEquals(3, desc.getResidentSize());
+        desc.release(false);
+        assertEquals(0, desc.getResidentSize());
+        // 释放后重新读取
+        assertArrayEquals(new byte[]{1, 2, 3}, desc.getClassByteCode());
+    }
+
+    @Test
+    public void releaseAfterTouch() throws Exception {
+        File classFile = folder.newFile("A.class");
+        Files.write(classFile.toPath(), new byte[]{1, 2, 3});
+        ClassDescription desc = newDescription(classFile);
+        desc.getClassByteCode();
+        long time = classFile.lastModified() + 5000;
+        desc.touchClassFile(time);
+        assertEquals(time, classFile.lastModified());
+        desc.release(false);
+        assertEquals(0, desc.getResidentSize());
+    }
+
+    @Test
+    public void keepCompiledBytesWithSameLength() throws Exception {
+        File classFile = folder.newFile("A.class");
+        Files.write(classFile.toPath(), new byte[]{1, 2, 3});
+        ClassDescription desc = newDescription(classFile);
+        // 编译器生成的字节码还没有写入文件，长度相同也不能释放
+        desc.setClassByteCode(new byte[]{4, 5, 6});
+        desc.release(false);
+        assertArrayEquals(new byte[]{4, 5, 6}, desc.getClassByteCode());
+    }
+
+    @Test
+    public void keepBytesWhenClassFileChanged() throws Exception {
+        File classFile = folder.newFile("A.class");
+        Files.write(classFile.toPath(), new byte[]{1, 2, 3});
+        ClassDescription desc = newDescription(classFile);
+        desc.getClassByteCode();
+        Files.write(classFile.toPath(), new byte[]{7, 8, 9});
+        assertTrue(classFile.setLastModified(classFile.lastModified() + 2000));
+        desc.release(false);
+        assertArrayEquals(new byte[]{1, 2, 3}, desc.getClassByteCode());
+    }
+
+    @Test
+    public void draftIsPublishedAtOnce() throws Exception {
+        File classFile = folder.newFile("A.class");
+        Files.write(classFile.toPath(), new byte[]{1, 2, 3});
+        ClassDescription desc = newDescription(classFile);
+        long version = desc.getVersion();
+        ClassDraft draft = desc.draft();
+        assertFalse(draft.hasEnhancedByteCode());
+        // 读取草稿不修改草稿和原描述
+        assertEquals(3, draft.getEnhancedByteCodeStream().available());
+        assertFalse(draft.hasEnhancedByteCode());
+        draft.setEnhancedByteCode(new byte[]{9});
+        assertFalse(desc.hasEnhancedByteCode());
+        assertNull(desc.getEnhancedByteCode());
+        assertTrue(desc.publish(draft));
+        assertTrue(desc.hasEnhancedByteCode());
+        assertArrayEquals(new byte[]{9}, desc.getEnhancedByteCode());
+        assertNotEquals(version, desc.getVersion());
+    }
+
+    @Test
+    public void staleDraftIsDropped() throws Exception {
+        File classFile = folder.newFile("A.class");
+        Files.write(classFile.toPath(), new byte[]{1, 2, 3});
+        ClassDescription desc = newDescription(classFile);
+        ClassDraft draft = desc.draft();
+        draft.setEnhancedByteCode(new byte[]{9});
+        // 增强期间发布了新的增强结果
+        desc.setEnhancedByteCode(new byte[]{8});
+        assertFalse(desc.publish(draft));
+        assertArrayEquals(new byte[]{8}, desc.getEnhancedByteCode());
+    }
+
+    @Test
+    public void readingStreamDoesNotPublish() throws Exception {
+        File classFile = folder.newFile("A.class");
+        Files.write(classFile.toPath(), new byte[]{1, 2, 3});
+        ClassDescription desc = newDescription(classFile);
+        long version = desc.getVersion();
+        desc.getEnhancedByteCodeStream().close();
+        assertFalse(desc.hasEnhancedByteCode());
+        assertEquals(version, desc.getVersion());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectForeignDraft() throws Exception {
+        File classFile = folder.newFile("A.class");
+        newDescription(classFile).publish(newDescription(classFile).draft());
+    }
+}
@@ -0,0 +1,56 @@
+package ameba.dev.classloading;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author icode
+ */
+public class ClassFingerprintTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] compile(String source, String debug) throws IOException {
+        File dir = folder.newFolder();
+        File file = new File(dir, "Sample.java");
+        FileUtils.writeStringToFile(file, source, StandardCharsets.UTF_8);
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null,
+                debug, "-d", dir.getPath(), file.getPath()));
+        return Files.readAllBytes(new File(dir, "Sample.class").toPath());
+    }
+
+    @Test
+    public void ignoresDebugInfo() throws IOException {
+        String source = "public class Sample {\n  public int add(int a, int b) {\n    int c = a + b;\n    return c;\n  }\n}\n";
+        // 只有行号改变
+        String moved = "public class Sample {\n\n\n  public int add(int a, int b) {\n    int c = a + b;\n    return c;\n  }\n}\n";
+        String fingerprint = ClassFingerprint.semantic(compile(source, "-g"));
+        assertNotNull(fingerprint);
+        assertEquals(fingerprint, ClassFingerprint.semantic(compile(source, "-g:none")));
+        assertEquals(fingerprint, ClassFingerprint.semantic(compile(moved, "-g")));
+    }
+
+    @Test
+    public void changesWithCode() throws IOException {
+        String source = "public class Sample {\n  public int add(int a, int b) {\n    return a + b;\n  }\n}\n";
+        String changed = "public class Sample {\n  public int add(int a, int b) {\n    return a - b;\n  }\n}\n";
+        assertNotEquals(ClassFingerprint.semantic(compile(source, "-g")),
+                ClassFingerprint.semantic(compile(changed, "-g")));
+    }
+
+    @Test
+    public void invalidBytecode() {
+        assertNull(ClassFingerprint.semantic(null));
+        assertNull(ClassFingerprint.semantic(new byte[]{1, 2, 3}));
+    }
+}
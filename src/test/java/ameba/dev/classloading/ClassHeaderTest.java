@@ -0,0 +1,86 @@
+package ameba.dev.classloading;
+
+import ameba.dev.classloading.enhancers.Enhanced;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author icode
+ */
+public class ClassHeaderTest {
+
+    private static byte[] bytecode(Class<?> type) throws IOException {
+        try (InputStream in = type.getResourceAsStream("/" + type.getName().replace('.', '/') + ".class")) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    @Test
+    public void readsNamesAndAnnotations() throws IOException {
+        ClassHeader header = ClassHeader.read(bytecode(Sample.class));
+        assertEquals(Sample.class.getName(), header.getClassName());
+        assertEquals(Base.class.getName(), header.getSuperName());
+        assertArrayEquals(new String[]{Serializable.class.getName(), Runnable.class.getName()},
+                header.getInterfaces());
+        assertTrue(header.hasAnnotation(Marker.class.getName()));
+        assertTrue(header.isEnhanced());
+        assertFalse(header.isInterface());
+        assertFalse(header.isPackageInfo());
+    }
+
+    @Test
+    public void skipsAnnotationsWhenNotRequested() throws IOException {
+        ClassHeader header = ClassHeader.read(new ByteArrayInputStream(bytecode(Sample.class)), false);
+        assertEquals(Base.class.getName(), header.getSuperName());
+        assertTrue(header.getAnnotations().isEmpty());
+        assertFalse(header.isEnhanced());
+    }
+
+    @Test
+    public void readsKinds() throws IOException {
+        assertTrue(ClassHeader.read(bytecode(Runnable.class)).isInterface());
+        assertTrue(ClassHeader.read(bytecode(Marker.class)).isAnnotation());
+        assertTrue(ClassHeader.read(bytecode(Kind.class)).isEnum());
+        assertEquals(Object.class.getName(), ClassHeader.read(bytecode(Base.class)).getSuperName());
+        assertNull(ClassHeader.read(bytecode(Object.class)).getSuperName());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNonClassFile() throws IOException {
+        ClassHeader.read(new byte[]{1, 2, 3, 4, 0, 0, 0, 0});
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Marker {
+    }
+
+    public enum Kind {
+        A
+    }
+
+    public static class Base {
+        public static final long LONG = 1L;
+        public static final double DOUBLE = 2.0;
+    }
+
+    @Marker
+    @Enhanced
+    public static class Sample extends Base implements Serializable, Runnable {
+        private final String text = "text";
+
+        @Override
+        public void run() {
+            Runnable r = () -> System.out.println(text + LONG + DOUBLE);
+            r.run();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ameba.dev.classloading;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import org.junit.Test;
+
+import java.io.Serializable;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author icode
+ */
+public class ClassHierarchyTest {
+
+    @Test
+    public void lateSuperclassInvalidatesClosures() throws Exception {
+        ClassPool pool = new ClassPool(true);
+        CtClass base = pool.makeClass("hierarchy.late.Base");
+        base.addInterface(pool.get(Serializable.class.getName()));
+        CtClass sub = pool.makeClass("hierarchy.late.Sub", base);
+        byte[] baseBytes = base.toBytecode();
+        byte[] subBytes = sub.toBytecode();
+
+        ClassHierarchy.update(ClassHeader.read(subBytes));
+        assertTrue(ClassHierarchy.isSubclassOf("hierarchy.late.Sub", "hierarchy.late.Base"));
+        // 父类还不存在时闭包中没有它实现的接口
+        assertFalse(ClassHierarchy.isSubtypeOf("hierarchy.late.Sub", Serializable.class.getName()));
+
+        ClassHierarchy.update(ClassHeader.read(baseBytes));
+        assertTrue(ClassHierarchy.isSubtypeOf("hierarchy.late.Sub", Serializable.class.getName()));
+    }
+
+    @Test
+    public void changedSuperclassInvalidatesClosures() throws Exception {
+        ClassPool pool = new ClassPool(true);
+        CtClass a = pool.makeClass("hierarchy.changed.A");
+        CtClass b = pool.makeClass("hierarchy.changed.B");
+        CtClass sub = pool.makeClass("hierarchy.changed.Sub", a);
+        ClassHierarchy.update(ClassHeader.read(a.toBytecode()));
+        ClassHierarchy.update(ClassHeader.read(b.toBytecode()));
+        ClassHierarchy.update(ClassHeader.read(sub.toBytecode()));
+        assertTrue(ClassHierarchy.isSubclassOf("hierarchy.changed.Sub", "hierarchy.changed.A"));
+
+        sub.defrost();
+        sub.setSuperclass(b);
+        ClassHierarchy.update(ClassHeader.read(sub.toBytecode()));
+        assertFalse(ClassHierarchy.isSubclassOf("hierarchy.changed.Sub", "hierarchy.changed.A"));
+        assertTrue(ClassHierarchy.isSubclassOf("hierarchy.changed.Sub", "hierarchy.changed.B"));
+    }
+}
@@ -0,0 +1,77 @@
+package ameba.dev.classloading;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author icode
+ */
+public class ClassIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private Path output;
+    private Path indexFile;
+
+    private static String fileName(Class<?> type) {
+        return type.getName().replace('.', '/') + ".class";
+    }
+
+    private void copy(Class<?> type) throws IOException {
+        Path target = output.resolve(fileName(type));
+        Files.createDirectories(target.getParent());
+        try (InputStream in = type.getResourceAsStream("/" + fileName(type))) {
+            Files.copy(in, target);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        output = folder.newFolder("classes").toPath();
+        indexFile = output.resolve(ClassIndex.INDEX_FILE).normalize();
+        copy(Annotated.class);
+        copy(Sub.class);
+    }
+
+    @Test
+    public void scanIndexesOutputDirectory() {
+        ClassIndex index = new ClassIndex(indexFile, output);
+        assertFalse(index.isComplete());
+        index.scan();
+        assertTrue(index.isComplete());
+        ClassIndex.Entry annotated = index.getEntries().get(Annotated.class.getName());
+        assertTrue(annotated.getAnnotations().contains(Deprecated.class.getName()));
+        assertEquals(Annotated.class.getName(), index.getEntries().get(Sub.class.getName()).getSuperName());
+        assertTrue(Files.isRegularFile(indexFile));
+    }
+
+    @Test
+    public void savedIndexIsReloadedAndPruned() throws IOException {
+        new ClassIndex(indexFile, output).scan();
+        ClassIndex loaded = new ClassIndex(indexFile, output);
+        assertTrue(loaded.contains(Sub.class.getName()));
+
+        Files.delete(output.resolve(fileName(Sub.class)));
+        loaded.scan();
+        assertFalse(loaded.contains(Sub.class.getName()));
+        assertTrue(loaded.contains(Annotated.class.getName()));
+        assertFalse(new ClassIndex(indexFile, output).contains(Sub.class.getName()));
+    }
+
+    @Deprecated
+    public static class Annotated {
+    }
+
+    public static class Sub extends Annotated {
+    }
+}
@@ -0,0 +1,178 @@
+package ameba.dev.classloading;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author icode
+ */
+public class EnhancedCachePackTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+
+    private File newPackFile() {
+        return new File(folder.getRoot(), "generated-classes/ameba/enhanced-cache.pack");
+    }
+
+    @Test
+    public void roundTrip() {
+        File file = newPackFile();
+        EnhancedCachePack pack = new EnhancedCachePack(file);
+        byte[] a = bytes(100, 1);
+        byte[] b = bytes(200, 2);
+        pack.put("a.A", "s1", "f1", a);
+        pack.put("a.B", "s2", null, b);
+        // 写入前从内存读取
+        assertArrayEquals(a, pack.get("a.A", "s1"));
+        pack.flush();
+        assertTrue(file.isFile());
+        assertEquals(file.length(), pack.getSize());
+        assertArrayEquals(a, pack.get("a.A", "s1"));
+        assertNull(pack.get("a.A", "other"));
+        pack.close();
+
+        EnhancedCachePack reopened = new EnhancedCachePack(file);
+        assertArrayEquals(a, reopened.get("a.A", "s1"));
+        assertArrayEquals(b, reopened.get("a.B", "s2"));
+        assertEquals("f1", reopened.getEntry("a.A", "s1").getFingerprint());
+        assertNull(reopened.getEntry("a.B", "s2").getFingerprint());
+        reopened.close();
+    }
+
+    @Test
+    public void laterRecordWins() {
+        File file = newPackFile();
+        EnhancedCachePack pack = new EnhancedCachePack(file);
+        pack.put("a.A", "s1", null, bytes(10, 1));
+        pack.flush();
+        pack.put("a.A", "s2", null, bytes(20, 2));
+        pack.flush();
+        pack.close();
+
+        EnhancedCachePack reopened = new EnhancedCachePack(file);
+        assertNull(reopened.getEntry("a.A", "s1"));
+        assertArrayEquals(bytes(20, 2), reopened.get("a.A", "s2"));
+        reopened.close();
+    }
+
+    @Test
+    public void truncatedTail() throws Exception {
+        File file = newPackFile();
+        EnhancedCachePack pack = new EnhancedCachePack(file);
+        pack.put("a.A", "s1", null, bytes(100, 1));
+        pack.flush();
+        long complete = file.length();
+        pack.put("a.B", "s2", null, bytes(100, 2));
+        pack.flush();
+        pack.close();
+        // 模拟写入到一半时进程退出
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 10);
+        }
+
+        EnhancedCachePack reopened = new EnhancedCachePack(file);
+        assertArrayEquals(bytes(100, 1), reopened.get("a.A", "s1"));
+        assertNull(reopened.getEntry("a.B", "s2"));
+        assertEquals(complete, file.length());
+
+        // 截断后可以继续追加
+        reopened.put("a.C", "s3", null, bytes(50, 3));
+        reopened.flush();
+        reopened.close();
+        EnhancedCachePack again = new EnhancedCachePack(file);
+        assertArrayEquals(bytes(50, 3), again.get("a.C", "s3"));
+        again.close();
+    }
+
+    @Test
+    public void compaction() {
+        File file = newPackFile();
+        EnhancedCachePack pack = new EnhancedCachePack(file);
+        for (int i = 0; i < 10; i++) {
+            pack.put("a.A" + i, "s", null, bytes(1000, i));
+        }
+        pack.flush();
+        // 同一个类的旧记录
+        pack.put("a.A0", "new", null, bytes(1000, 42));
+        pack.flush();
+        long before = file.length();
+
+        long reclaimed = pack.compact((name, signature) -> !name.equals("a.A9"), Long.MAX_VALUE);
+        assertTrue(reclaimed > 0);
+        assertEquals(before - reclaimed, file.length());
+        assertNull(pack.getEntry("a.A9", "s"));
+        assertArrayEquals(bytes(1000, 42), pack.get("a.A0", "new"));
+        for (int i = 1; i < 9; i++) {
+            assertArrayEquals(bytes(1000, i), pack.get("a.A" + i, "s"));
+        }
+        pack.close();
+
+        EnhancedCachePack reopened = new EnhancedCachePack(file);
+        assertEquals(9, reopened.getEntries().size());
+        assertArrayEquals(bytes(1000, 42), reopened.get("a.A0", "new"));
+        reopened.close();
+    }
+
+    @Test
+    public void compactionKeepsNewestWithinMaxSize() {
+        File file = newPackFile();
+        EnhancedCachePack pack = new EnhancedCachePack(file);
+        for (int i = 0; i < 4; i++) {
+            pack.put("a.A" + i, "s", null, bytes(1000, i));
+            pack.flush();
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        pack.compact((name, signature) -> true, 2500);
+        assertTrue(file.length() <= 2500);
+        assertEquals(2, pack.getEntries().size());
+        assertNotNull(pack.getEntry("a.A3", "s"));
+        assertNotNull(pack.getEntry("a.A2", "s"));
+        pack.close();
+    }
+
+    @Test
+    public void otherProcessCompaction() {
+        File file = newPackFile();
+        EnhancedCachePack first = new EnhancedCachePack(file);
+        first.put("a.A", "s", null, bytes(100, 1));
+        first.put("a.B", "s", null, bytes(100, 2));
+        first.flush();
+        EnhancedCachePack second = new EnhancedCachePack(file);
+        second.compact((name, signature) -> name.equals("a.B"), Long.MAX_VALUE);
+
+        // 另一个实例整理后再写入时重新扫描，不会写入已被替换的文件
+        first.put("a.C", "s", null, bytes(100, 3));
+        first.flush();
+        assertNull(first.getEntry("a.A", "s"));
+        assertArrayEquals(bytes(100, 2), first.get("a.B", "s"));
+        first.close();
+        second.close();
+
+        EnhancedCachePack reopened = new EnhancedCachePack(file);
+        assertArrayEquals(bytes(100, 3), reopened.get("a.C", "s"));
+        assertArrayEquals(bytes(100, 2), reopened.get("a.B", "s"));
+        reopened.close();
+    }
+}
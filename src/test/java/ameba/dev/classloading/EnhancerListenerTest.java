@@ -0,0 +1,65 @@
+package ameba.dev.classloading;
+
+import ameba.dev.classloading.enhancers.Enhanced;
+import ameba.dev.classloading.enhancers.Enhancer;
+import com.google.common.collect.Maps;
+import javassist.ClassPool;
+import javassist.CtClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * @author icode
+ */
+public class EnhancerListenerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ClassDescription newDescription(String name, byte[] bytecode) throws Exception {
+        File classFile = folder.newFile(name + ".class");
+        Files.write(classFile.toPath(), bytecode);
+        ClassDescription desc = new ClassDescription() {
+            @Override
+            public void refresh() {
+            }
+
+            @Override
+            public void destroy() {
+            }
+        };
+        desc.className = name;
+        desc.classFile = classFile;
+        return desc;
+    }
+
+    private static void enhance(ClassDescription desc) {
+        new EnhancerListener(Maps.newHashMap()).onReceive(new EnhanceClassEvent(desc));
+    }
+
+    @Test
+    public void keepEnhancedBytesOfEnhancedClass() throws Exception {
+        byte[] raw = new ClassPool(true).makeClass("a.Restored").toBytecode();
+        CtClass clazz = new ClassPool(true).makeClass("a.Restored");
+        Enhancer.addAnnotation(Enhancer.getAnnotations(clazz), Enhanced.class);
+        byte[] enhanced = clazz.toBytecode();
+        ClassDescription desc = newDescription("a.Restored", raw);
+        // 从缓存读取的增强结果
+        desc.setEnhancedByteCode(enhanced);
+        enhance(desc);
+        assertArrayEquals(enhanced, desc.getEnhancedByteCode());
+    }
+
+    @Test
+    public void skippedClassIsEnhancedAsIs() throws Exception {
+        byte[] raw = new ClassPool(true).makeInterface("a.Skipped").toBytecode();
+        ClassDescription desc = newDescription("a.Skipped", raw);
+        enhance(desc);
+        assertArrayEquals(raw, desc.getEnhancedByteCode());
+    }
+}
@@ -0,0 +1,48 @@
+package ameba.dev.classloading;
+
+import com.google.common.collect.Maps;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author icode
+ */
+public class SharedEnhancedCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void generatedClassesTravelWithOwner() throws Exception {
+        SharedEnhancedCache cache = new SharedEnhancedCache(folder.getRoot().toPath());
+        String key = SharedEnhancedCache.key("s", new byte[]{1});
+        assertNull(cache.read(key));
+
+        Map<String, byte[]> generated = Maps.newTreeMap();
+        generated.put("a.A$$PropertyAccessor", new byte[]{3, 4});
+        generated.put("a.A$$Other", new byte[0]);
+        cache.write(key, new byte[]{2}, generated);
+
+        assertArrayEquals(new byte[]{2}, cache.read(key));
+        Map<String, byte[]> read = cache.readGenerated(key);
+        assertEquals(generated.keySet(), read.keySet());
+        assertArrayEquals(new byte[]{3, 4}, read.get("a.A$$PropertyAccessor"));
+        assertArrayEquals(new byte[0], read.get("a.A$$Other"));
+    }
+
+    @Test
+    public void ownerWithoutGeneratedClasses() throws Exception {
+        SharedEnhancedCache cache = new SharedEnhancedCache(folder.getRoot().toPath());
+        String key = SharedEnhancedCache.key("s", new byte[]{1});
+        cache.write(key, new byte[]{2});
+        assertArrayEquals(new byte[]{2}, cache.read(key));
+        assertTrue(cache.readGenerated(key).isEmpty());
+    }
+}
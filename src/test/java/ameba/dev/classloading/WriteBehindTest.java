@@ -0,0 +1,66 @@
+package ameba.dev.classloading;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author icode
+ */
+public class WriteBehindTest {
+
+    @Test
+    public void coalescesTasksByKey() throws InterruptedException {
+        // 占住后台线程，提交期间不会执行
+        CountDownLatch blocking = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        WriteBehind.submit(new Object(), () -> {
+            blocking.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, true);
+        assertTrue(blocking.await(5, TimeUnit.SECONDS));
+
+        List<String> runs = Collections.synchronizedList(Lists.newArrayList());
+        CountDownLatch done = new CountDownLatch(1);
+        WriteBehind.submit("a", () -> runs.add("a1"));
+        WriteBehind.submit("b", () -> runs.add("b1"));
+        WriteBehind.submit("a", () -> runs.add("a2"));
+        WriteBehind.submit("done", done::countDown);
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // 同一个 key 只执行最后提交的任务，位置为第一次提交的位置
+        assertEquals(Lists.newArrayList("a2", "b1"), runs);
+    }
+
+    @Test
+    public void failingTaskDoesNotStopOthers() throws InterruptedException {
+        CountDownLatch ok = new CountDownLatch(1);
+        WriteBehind.submit("fail", () -> {
+            throw new IllegalStateException("fail");
+        });
+        WriteBehind.submit("ok", ok::countDown);
+        WriteBehind.drain();
+        assertTrue(ok.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void runsInBackground() throws InterruptedException {
+        CountDownLatch delayed = new CountDownLatch(1);
+        CountDownLatch now = new CountDownLatch(1);
+        WriteBehind.submit("delayed", delayed::countDown);
+        WriteBehind.submit("now", now::countDown, true);
+        assertTrue(now.await(5, TimeUnit.SECONDS));
+        assertTrue(delayed.await(5, TimeUnit.SECONDS));
+    }
+}
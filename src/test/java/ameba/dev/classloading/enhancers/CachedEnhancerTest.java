@@ -0,0 +1,73 @@
+package ameba.dev.classloading.enhancers;
+
+import ameba.dev.cache.Cached;
+import ameba.dev.cache.MethodCache;
+import ameba.dev.cache.MethodCaches;
+import ameba.dev.classloading.ClassDraft;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author icode
+ */
+public class CachedEnhancerTest {
+
+    private static Class<?> enhance() throws Exception {
+        ClassDraft draft = EnhancerTests.draft(Service.class);
+        new CachedEnhancer(Maps.newHashMap()).enhance(draft);
+        assertTrue(draft.hasEnhancedByteCode());
+        return EnhancerTests.define(Service.class.getName(), draft.getEnhancedByteCode());
+    }
+
+    private static MethodCache cache(String method) {
+        return MethodCaches.getCaches().entrySet().stream()
+                .filter(e -> e.getKey().startsWith(Service.class.getName() + "." + method + "("))
+                .findFirst().orElseThrow(AssertionError::new).getValue();
+    }
+
+    @Test
+    public void staticMethodIsCached() throws Exception {
+        Class<?> type = enhance();
+        Object first = type.getMethod("square", int.class).invoke(null, 3);
+        Object second = type.getMethod("square", int.class).invoke(null, 3);
+        assertEquals(9, first);
+        assertEquals(9, second);
+        assertEquals(1, type.getField("calls").getInt(null));
+        MethodCache cache = cache("square");
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void instanceMethodIsCachedPerInstance() throws Exception {
+        Class<?> type = enhance();
+        Object a = type.newInstance();
+        Object b = type.newInstance();
+        assertEquals("a:x", type.getMethod("name", String.class).invoke(a, "x"));
+        assertEquals("a:x", type.getMethod("name", String.class).invoke(a, "x"));
+        assertEquals("a:x", type.getMethod("name", String.class).invoke(b, "x"));
+        assertEquals(2, type.getField("calls").getInt(null));
+        assertNotNull(cache("name"));
+        assertEquals(2, cache("name").size());
+    }
+
+    public static class Service {
+        public static int calls;
+
+        @Cached
+        public static int square(int value) {
+            calls++;
+            return value * value;
+        }
+
+        @Cached
+        public String name(String value) {
+            calls++;
+            return "a:" + value;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package ameba.dev.classloading.enhancers;
+
+import ameba.dev.classloading.ClassDraft;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * @author icode
+ */
+public class EnhancerTest {
+
+    private static Enhancer newEnhancer(Map<String, Object> properties) {
+        return new Enhancer(properties) {
+            @Override
+            protected String[] getConfigPrefixes() {
+                return new String[]{"test.enhancer."};
+            }
+
+            @Override
+            public void enhance(ClassDraft description) {
+            }
+        };
+    }
+
+    @Test
+    public void signatureFollowsOwnConfig() {
+        Map<String, Object> properties = Maps.newHashMap();
+        properties.put("test.enhancer.mode", "a");
+        properties.put("app.name", "x");
+        Enhancer enhancer = newEnhancer(properties);
+        String signature = enhancer.getSignature(properties);
+
+        Map<String, Object> other = Maps.newHashMap(properties);
+        other.put("app.name", "y");
+        assertEquals(signature, enhancer.getSignature(other));
+
+        other.put("test.enhancer.mode", "b");
+        assertNotEquals(signature, enhancer.getSignature(other));
+    }
+}
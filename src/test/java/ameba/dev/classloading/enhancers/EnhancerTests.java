@@ -0,0 +1,80 @@
+package ameba.dev.classloading.enhancers;
+
+import ameba.dev.classloading.ClassDescription;
+import ameba.dev.classloading.ClassDraft;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 增强器测试的工具方法
+ *
+ * @author icode
+ */
+final class EnhancerTests {
+    private EnhancerTests() {
+    }
+
+    static byte[] bytecode(Class<?> type) throws IOException {
+        try (InputStream in = type.getResourceAsStream("/" + type.getName().replace('.', '/') + ".class")) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    /**
+     * 以测试类的原始字节码创建草稿
+     */
+    static ClassDraft draft(Class<?> type) throws IOException {
+        return draft(type.getName(), bytecode(type), null);
+    }
+
+    /**
+     * 以指定的字节码及源文件创建草稿
+     */
+    static ClassDraft draft(String className, byte[] bytecode, File javaFile) {
+        ClassDescription desc = new ClassDescription() {
+            @Override
+            public void refresh() {
+            }
+
+            @Override
+            public void destroy() {
+            }
+        };
+        desc.className = className;
+        desc.javaFile = javaFile;
+        desc.setClassByteCode(bytecode);
+        return desc.draft();
+    }
+
+    /**
+     * 在独立的类加载器中定义增强后的类，其余类委托给测试的类加载器
+     */
+    static Class<?> define(String name, byte[] bytecode) throws ClassNotFoundException {
+        return define(Collections.singletonMap(name, bytecode), name);
+    }
+
+    /**
+     * 在同一个独立的类加载器中定义多个类，其余类委托给测试的类加载器
+     */
+    static Class<?> define(Map<String, byte[]> classes, String name) throws ClassNotFoundException {
+        return new ClassLoader(EnhancerTests.class.getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+                byte[] bytecode = classes.get(className);
+                if (bytecode != null) {
+                    synchronized (getClassLoadingLock(className)) {
+                        Class<?> c = findLoadedClass(className);
+                        if (c == null) c = defineClass(className, bytecode, 0, bytecode.length);
+                        return c;
+                    }
+                }
+                return super.loadClass(className, resolve);
+            }
+        }.loadClass(name);
+    }
+}
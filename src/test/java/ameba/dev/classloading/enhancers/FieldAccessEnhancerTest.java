@@ -0,0 +1,128 @@
+package ameba.dev.classloading.enhancers;
+
+import ameba.dev.classloading.ClassDraft;
+import com.google.common.collect.Maps;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.expr.ExprEditor;
+import javassist.expr.FieldAccess;
+import javassist.expr.MethodCall;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author icode
+ */
+public class FieldAccessEnhancerTest {
+
+    /**
+     * 在类池中为类的公开字段生成访问器
+     */
+    private static CtClass withGeneratedAccessors(Class<?> type) throws Exception {
+        CtClass ctClass = Enhancer.getClassPool().makeClass(new ByteArrayInputStream(EnhancerTests.bytecode(type)));
+        ctClass.defrost();
+        CtMethod getter = Enhancer.createGetter(ctClass, ctClass.getDeclaredField("value"));
+        Enhancer.createSetter(ctClass, ctClass.getDeclaredField("value"));
+        assertNull(getter.getMethodInfo().getAttribute(AnnotationsAttribute.visibleTag));
+        assertNotNull(getter.getMethodInfo().getAttribute(AnnotationsAttribute.invisibleTag));
+        assertTrue(getter.hasAnnotation(GeneratedAccessor.class));
+        return ctClass;
+    }
+
+    /**
+     * @return {field access, accessor call} 的次数
+     */
+    private static int[] accesses(Class<?> user, Class<?> holder) throws Exception {
+        ClassDraft draft = EnhancerTests.draft(user);
+        new FieldAccessEnhancer(Maps.newHashMap()).enhance(draft);
+        CtClass ctClass = Enhancer.getClassPool().makeClass(new ByteArrayInputStream(draft.getEnhancedByteCode()));
+        AtomicInteger fields = new AtomicInteger();
+        AtomicInteger calls = new AtomicInteger();
+        ctClass.getDeclaredMethod("use").instrument(new ExprEditor() {
+            @Override
+            public void edit(FieldAccess f) {
+                if (f.getClassName().equals(holder.getName())) fields.incrementAndGet();
+            }
+
+            @Override
+            public void edit(MethodCall m) {
+                if (m.getClassName().equals(holder.getName())) calls.incrementAndGet();
+            }
+        });
+        ctClass.detach();
+        return new int[]{fields.get(), calls.get()};
+    }
+
+    @Test
+    public void keepsDirectAccessWhenAccessorCanNotBeOverridden() throws Exception {
+        CtClass holder = withGeneratedAccessors(FinalHolder.class);
+        try {
+            assertArrayEquals(new int[]{2, 0}, accesses(FinalUser.class, FinalHolder.class));
+        } finally {
+            holder.detach();
+        }
+    }
+
+    @Test
+    public void callsAccessorWhenItMayBeOverridden() throws Exception {
+        CtClass holder = withGeneratedAccessors(OpenHolder.class);
+        try {
+            assertArrayEquals(new int[]{0, 2}, accesses(OpenUser.class, OpenHolder.class));
+        } finally {
+            holder.detach();
+        }
+    }
+
+    @Test
+    public void keepsDirectAccessToAccessorsGeneratedByModelEnhancer() throws Exception {
+        // 由 ModelEnhancer 为 final 的非实体类生成的访问器
+        ClassDraft draft = EnhancerTests.draft(Dto.class);
+        new ModelEnhancer(Maps.newHashMap()).enhance(draft);
+        CtClass dto = Enhancer.getClassPool().makeClass(new ByteArrayInputStream(draft.getEnhancedByteCode()));
+        try {
+            assertTrue(dto.getDeclaredMethod("getName").hasAnnotation(GeneratedAccessor.class));
+            assertTrue(dto.getDeclaredMethod("setName").hasAnnotation(GeneratedAccessor.class));
+            assertArrayEquals(new int[]{2, 0}, accesses(DtoUser.class, Dto.class));
+        } finally {
+            dto.detach();
+        }
+    }
+
+    public static final class Dto {
+        public String name;
+    }
+
+    public static class DtoUser {
+        public int use(Dto dto) {
+            dto.name = dto.name + "!";
+            return 0;
+        }
+    }
+
+    public static final class FinalHolder {
+        public int value;
+    }
+
+    public static class OpenHolder {
+        public int value;
+    }
+
+    public static class FinalUser {
+        public int use(FinalHolder holder) {
+            holder.value = holder.value + 1;
+            return 0;
+        }
+    }
+
+    public static class OpenUser {
+        public int use(OpenHolder holder) {
+            holder.value = holder.value + 1;
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ameba.dev.classloading.enhancers;
+
+import ameba.dev.classloading.ClassDraft;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author icode
+ */
+public class InjectEnhancerTest {
+
+    private static Class<?> enhance() throws Exception {
+        ClassDraft draft = EnhancerTests.draft(Resource.class);
+        new InjectEnhancer(Maps.newHashMap()).enhance(draft);
+        assertTrue(draft.hasEnhancedByteCode());
+        return EnhancerTests.define(Resource.class.getName(), draft.getEnhancedByteCode());
+    }
+
+    private static <T> Provider<T> provider(T instance, AtomicInteger calls) {
+        return () -> {
+            calls.incrementAndGet();
+            return instance;
+        };
+    }
+
+    @Test
+    public void singletonIsCachedAfterFirstRead() throws Exception {
+        Class<?> type = enhance();
+        Field field = type.getDeclaredField("service");
+        assertEquals(Provider.class, field.getType());
+        field.setAccessible(true);
+
+        Object resource = type.newInstance();
+        assertNull(type.getMethod("service").invoke(resource));
+
+        AtomicInteger calls = new AtomicInteger();
+        Service service = new Service();
+        field.set(resource, provider(service, calls));
+        assertSame(service, type.getMethod("service").invoke(resource));
+        assertSame(service, type.getMethod("service").invoke(resource));
+        assertEquals(1, calls.get());
+
+        // 重新赋值 provider 后重新获取
+        Service other = new Service();
+        field.set(resource, provider(other, calls));
+        assertSame(other, type.getMethod("service").invoke(resource));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void otherScopesReadProviderEachTime() throws Exception {
+        Class<?> type = enhance();
+        Field field = type.getDeclaredField("request");
+        assertEquals(Provider.class, field.getType());
+        field.setAccessible(true);
+
+        Object resource = type.newInstance();
+        AtomicInteger calls = new AtomicInteger();
+        field.set(resource, provider("a", calls));
+        assertEquals("a", type.getMethod("request").invoke(resource));
+        assertEquals("a", type.getMethod("request").invoke(resource));
+        assertEquals(2, calls.get());
+    }
+
+    @Singleton
+    public static class Service {
+    }
+
+    public static class Resource {
+        @Inject
+        private Service service;
+        @Inject
+        private String request;
+
+        public Service service() {
+            return service;
+        }
+
+        public String request() {
+            return request;
+        }
+    }
+}
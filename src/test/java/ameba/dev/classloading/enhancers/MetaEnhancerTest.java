@@ -0,0 +1,89 @@
+package ameba.dev.classloading.enhancers;
+
+import ameba.dev.classloading.ClassDraft;
+import ameba.meta.Display;
+import com.google.common.collect.Maps;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.MethodParametersAttribute;
+import javassist.bytecode.annotation.Annotation;
+import javassist.bytecode.annotation.StringMemberValue;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author icode
+ */
+public class MetaEnhancerTest {
+    private static final String SOURCE = "package meta;\n"
+            + "public class Sample<T> {\n"
+            + "    public static class Inner {}\n"
+            + "    /**\n"
+            + "     * 按内部类查找\n"
+            + "     */\n"
+            + "    public void find(Inner inner) {}\n"
+            + "    /**\n"
+            + "     * 按编号查找\n"
+            + "     */\n"
+            + "    public void find(long id) {}\n"
+            + "    public void all(T first, String... names) {}\n"
+            + "}\n";
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String display(CtMethod method) {
+        AnnotationsAttribute attribute = (AnnotationsAttribute) method.getMethodInfo()
+                .getAttribute(AnnotationsAttribute.visibleTag);
+        Annotation annotation = attribute == null ? null : attribute.getAnnotation(Display.class.getName());
+        return annotation == null ? null : ((StringMemberValue) annotation.getMemberValue("value")).getValue();
+    }
+
+    private static String[] parameterNames(CtMethod method) {
+        MethodParametersAttribute attribute = (MethodParametersAttribute) method.getMethodInfo()
+                .getAttribute(MethodParametersAttribute.tag);
+        if (attribute == null) return null;
+        String[] names = new String[attribute.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = attribute.getConstPool().getUtf8Info(attribute.name(i));
+        }
+        return names;
+    }
+
+    @Test
+    public void matchesOverloadsParsedFromSource() throws Exception {
+        File source = new File(folder.newFolder("meta"), "Sample.java");
+        FileUtils.writeStringToFile(source, SOURCE, StandardCharsets.UTF_8);
+        File output = folder.newFolder("classes");
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null,
+                "-encoding", "UTF-8", "-d", output.getPath(), source.getPath()));
+        byte[] bytecode = Files.readAllBytes(new File(output, "meta/Sample.class").toPath());
+
+        ClassDraft draft = EnhancerTests.draft("meta.Sample", bytecode, source);
+        new MetaEnhancer(Maps.newHashMap()).enhance(draft);
+        assertTrue(draft.hasEnhancedByteCode());
+
+        CtClass ctClass = Enhancer.getClassPool().makeClass(new ByteArrayInputStream(draft.getEnhancedByteCode()));
+        try {
+            assertEquals("按内部类查找", display(ctClass.getMethod("find", "(Lmeta/Sample$Inner;)V")));
+            assertEquals("按编号查找", display(ctClass.getMethod("find", "(J)V")));
+            assertArrayEquals(new String[]{"id"}, parameterNames(ctClass.getMethod("find", "(J)V")));
+            assertArrayEquals(new String[]{"first", "names"},
+                    parameterNames(ctClass.getMethod("all", "(Ljava/lang/Object;[Ljava/lang/String;)V")));
+            String paranamer = (String) ctClass.getField("__PARANAMER_DATA").getConstantValue();
+            assertTrue(paranamer, paranamer.contains("find meta.Sample$Inner inner \n"));
+        } finally {
+            ctClass.detach();
+        }
+    }
+}
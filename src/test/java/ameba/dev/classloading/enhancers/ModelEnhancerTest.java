@@ -0,0 +1,164 @@
+package ameba.dev.classloading.enhancers;
+
+import ameba.db.model.Model;
+import ameba.db.model.ModelProperties;
+import ameba.dev.classloading.ClassDraft;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import org.junit.Test;
+
+import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author icode
+ */
+public class ModelEnhancerTest {
+    private static final String PACKAGE = ModelEnhancerTest.class.getPackage().getName();
+    private static final String FINDER = PACKAGE + ".StatefulFinder";
+    private static final String PERSISTER = PACKAGE + ".StatefulPersister";
+    private static final String UPDATER = PACKAGE + ".StatefulUpdater";
+
+    private static Class<?> enhance() throws Exception {
+        ClassDraft draft = EnhancerTests.draft(Key.class);
+        new ModelEnhancer(Maps.newHashMap()).enhance(draft);
+        assertTrue(draft.hasEnhancedByteCode());
+        return EnhancerTests.define(Key.class.getName(), draft.getEnhancedByteCode());
+    }
+
+    private static Object key(Class<?> type, String code, String[] names, int[][] grid) throws Exception {
+        Object key = type.newInstance();
+        type.getField("id").setLong(key, 1);
+        type.getField("ratio").setDouble(key, 0.5);
+        type.getField("code").set(key, code);
+        type.getField("flags").set(key, new byte[]{1, 2});
+        type.getField("names").set(key, names);
+        type.getField("grid").set(key, grid);
+        return key;
+    }
+
+    @Test
+    public void embeddableEqualsComparesArrayContents() throws Exception {
+        Class<?> type = enhance();
+        assertTrue(Serializable.class.isAssignableFrom(type));
+        assertNotNull(type.getMethod("getCode"));
+        assertNotNull(type.getMethod("setCode", String.class));
+
+        Object a = key(type, "a", new String[]{"x", "y"}, new int[][]{{1}, {2, 3}});
+        Object b = key(type, "a", new String[]{"x", "y"}, new int[][]{{1}, {2, 3}});
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+
+        assertNotEquals(a, key(type, "a", new String[]{"x", "z"}, new int[][]{{1}, {2, 3}}));
+        assertNotEquals(a, key(type, "a", new String[]{"x", "y"}, new int[][]{{1}, {2, 4}}));
+        assertNotEquals(a, key(type, null, new String[]{"x", "y"}, new int[][]{{1}, {2, 3}}));
+        assertNotEquals(a, null);
+    }
+
+    /**
+     * 以 javassist 生成的 orm 实现，只实现构造函数，finder 带有一个模拟查询条件的可变字段
+     */
+    private static byte[] subclass(String name, String superName, String constructor, String field)
+            throws Exception {
+        ClassPool pool = Enhancer.getClassPool();
+        CtClass ctClass = pool.getOrNull(name);
+        if (ctClass == null) {
+            ctClass = pool.makeClass(name, pool.get(superName));
+            ctClass.addConstructor(CtNewConstructor.make(constructor, ctClass));
+            if (field != null) ctClass.addField(CtField.make(field, ctClass));
+        }
+        byte[] bytecode = ctClass.toBytecode();
+        ctClass.defrost();
+        return bytecode;
+    }
+
+    @Test
+    public void concurrentQueriesUseTheirOwnFinder() throws Exception {
+        Map<String, byte[]> classes = Maps.newHashMap();
+        classes.put(FINDER, subclass(FINDER, ModelProperties.FINDER_C_NAME,
+                "public StatefulFinder(String s, Class i, Class m) {super(s, i, m);}", "public Object where;"));
+        classes.put(PERSISTER, subclass(PERSISTER, ModelProperties.PERSISTER_C_NAME,
+                "public StatefulPersister(String s, " + Model.class.getName() + " m) {super(s, m);}", null));
+        classes.put(UPDATER, subclass(UPDATER, ModelProperties.UPDATER_C_NAME,
+                "public StatefulUpdater(String s, Class m, String q) {super(s, m, q);}", null));
+        Map<String, Object> properties = Maps.newHashMap();
+        properties.put("orm.finder", FINDER);
+        properties.put("orm.persister", PERSISTER);
+        properties.put("orm.updater", UPDATER);
+        ClassDraft draft = EnhancerTests.draft(Item.class);
+        new ModelEnhancer(properties).enhance(draft);
+        classes.put(Item.class.getName(), draft.getEnhancedByteCode());
+        Method withFinder = EnhancerTests.define(classes, Item.class.getName())
+                .getMethod(ModelProperties.GET_FINDER_M_NAME);
+
+        int threads = 8;
+        int queries = 200;
+        Set<Object> finders = Collections.synchronizedSet(Sets.newIdentityHashSet());
+        AtomicInteger conflicts = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = Lists.newArrayList();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < queries; i++) {
+                        Object finder = withFinder.invoke(null);
+                        Field where = finder.getClass().getField("where");
+                        Object condition = new Object();
+                        where.set(finder, condition);
+                        Thread.yield();
+                        if (where.get(finder) != condition) conflicts.incrementAndGet();
+                        finders.add(finder);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // finder 带有查询状态，不能在线程之间共享
+        assertEquals(0, conflicts.get());
+        assertEquals(threads * queries, finders.size());
+    }
+
+    @Entity
+    public static class Item extends Model {
+        @Id
+        public Long id;
+    }
+
+    @Embeddable
+    public static class Key {
+        public long id;
+        public double ratio;
+        public String code;
+        public byte[] flags;
+        public String[] names;
+        public int[][] grid;
+    }
+}
@@ -0,0 +1,55 @@
+package ameba.dev.classloading.enhancers;
+
+import ameba.dev.classloading.ClassDraft;
+import ameba.dev.profiling.EndpointProfile;
+import ameba.dev.profiling.MethodProfile;
+import ameba.dev.profiling.Profiler;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author icode
+ */
+public class ProfilingEnhancerTest {
+
+    @Test
+    public void recordsResourceMethodByHttpPath() throws Exception {
+        ClassDraft draft = EnhancerTests.draft(Resource.class);
+        new ProfilingEnhancer(Maps.newHashMap()).enhance(draft);
+        assertTrue(draft.hasEnhancedByteCode());
+
+        Profiler.reset();
+        Class<?> type = EnhancerTests.define(Resource.class.getName(), draft.getEnhancedByteCode());
+        Object resource = type.newInstance();
+        assertEquals("user 1", type.getMethod("get", String.class).invoke(resource, "1"));
+
+        Optional<EndpointProfile> profile = Profiler.snapshot().stream()
+                .filter(p -> p.getEndpoint().equals("GET /users/{id} " + Resource.class.getName() + ".get"))
+                .findFirst();
+        assertTrue(profile.isPresent());
+        List<MethodProfile> methods = profile.get().getMethods();
+        assertEquals(1, methods.size());
+        assertEquals(1, methods.get(0).getCount());
+    }
+
+    @Path("users")
+    public static class Resource {
+        @GET
+        @Path("{id}")
+        public String get(String id) {
+            return "user " + id;
+        }
+
+        public String helper() {
+            return "";
+        }
+    }
+}
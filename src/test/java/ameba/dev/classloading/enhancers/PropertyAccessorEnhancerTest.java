@@ -0,0 +1,95 @@
+package ameba.dev.classloading.enhancers;
+
+import ameba.db.model.Model;
+import ameba.dev.accessor.PropertyAccessor;
+import ameba.dev.accessor.PropertyAccessors;
+import ameba.dev.classloading.ClassCache;
+import ameba.dev.classloading.ClassDescription;
+import ameba.dev.classloading.ClassDraft;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author icode
+ */
+public class PropertyAccessorEnhancerTest {
+
+    @SuppressWarnings("unchecked")
+    private static PropertyAccessor<Object> enhance(Class<?> type) throws Exception {
+        ClassDraft draft = EnhancerTests.draft(type);
+        new PropertyAccessorEnhancer(Maps.newHashMap()).enhance(draft);
+        String name = PropertyAccessors.getAccessorClassName(type.getName());
+        ClassDescription desc = ClassCache.lookup(name);
+        if (desc == null) return null;
+        return (PropertyAccessor<Object>) EnhancerTests.define(name, desc.getEnhancedByteCode()).newInstance();
+    }
+
+    @Test
+    public void generatesAccessorIntoClassCache() throws Exception {
+        PropertyAccessor<Object> accessor = enhance(Account.class);
+        assertNotNull(accessor);
+        assertEquals(3, accessor.size());
+        int name = accessor.indexOf("name");
+        int age = accessor.indexOf("age");
+        assertTrue(name >= 0);
+        assertEquals(-1, accessor.indexOf("missing"));
+        assertEquals(String.class, accessor.getPropertyType(name));
+        assertEquals(int.class, accessor.getPropertyType(age));
+
+        Account account = new Account();
+        accessor.set(account, name, "a");
+        accessor.set(account, age, 3);
+        assertEquals("a", account.getName());
+        assertEquals("a", accessor.get(account, "name"));
+        assertEquals(3, accessor.get(account, age));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void readOnlyPropertyCanNotBeSet() throws Exception {
+        PropertyAccessor<Object> accessor = enhance(Account.class);
+        assertNotNull(accessor);
+        assertEquals(1L, accessor.get(new Account(), "id"));
+        accessor.set(new Account(), "id", 2L);
+    }
+
+    @Test
+    public void skipsNonModel() throws Exception {
+        assertNull(enhance(Plain.class));
+    }
+
+    public static class Account extends Model {
+        public final long id = 1;
+        public String name;
+        public int age;
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getAge() {
+            return age;
+        }
+
+        public void setAge(int age) {
+            this.age = age;
+        }
+    }
+
+    public static class Plain {
+        public String name;
+
+        public String getName() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ameba.dev.classloading.enhancers;
+
+import ameba.dev.classloading.ClassDraft;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.fibers.Suspendable;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author icode
+ */
+public class SuspendableAnalyzerTest {
+
+    @Test
+    public void reportsNonSuspendableCallers() throws Exception {
+        ClassDraft draft = EnhancerTests.draft(Caller.class);
+        List<String> problems = new SuspendableAnalyzer().analyze(draft, draft.getClassByteCode());
+        assertEquals(2, problems.size());
+        for (String problem : problems) {
+            assertTrue(problem, problem.startsWith("plain()V calls suspendable "));
+        }
+    }
+
+    public static class Callee {
+        @Suspendable
+        public void annotated() {
+        }
+
+        public void throwing() throws SuspendExecution {
+        }
+    }
+
+    public static class Caller {
+        @Suspendable
+        public void suspendable(Callee callee) {
+            callee.annotated();
+        }
+
+        public void plain() {
+            Callee callee = new Callee();
+            callee.annotated();
+            try {
+                callee.throwing();
+            } catch (SuspendExecution e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package ameba.dev.compiler;
+
+import com.google.common.collect.Lists;
+import com.sun.source.util.JavacTask;
+import com.thoughtworks.qdox.JavaProjectBuilder;
+import com.thoughtworks.qdox.model.JavaClass;
+import com.thoughtworks.qdox.model.JavaMethod;
+import com.thoughtworks.qdox.model.JavaParameter;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author icode
+ */
+public class SourceMetaCollectorTest {
+    private static final String SOURCE = "package meta;\n"
+            + "import java.util.*;\n"
+            + "public class Sample<T, N extends Number> {\n"
+            + "    public static class Inner {}\n"
+            + "    /**\n"
+            + "     * 查找\n"
+            + "     * @param values 值\n"
+            + "     */\n"
+            + "    public <M extends CharSequence> void find(List<String> values, Map.Entry<String, Integer> entry,\n"
+            + "            int[] ids, Inner inner, T t, N n, M m, List<? extends Number>[] lists, String... names) {}\n"
+            + "    public void find(long id) {}\n"
+            + "}\n";
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> qdoxTypes(File source) throws Exception {
+        JavaProjectBuilder builder = new JavaProjectBuilder();
+        builder.addSource(source);
+        JavaClass javaClass = builder.getClassByName("meta.Sample");
+        List<String> types = Lists.newArrayList();
+        for (JavaMethod method : javaClass.getMethods()) {
+            List<String> parameters = Lists.newArrayList();
+            for (JavaParameter parameter : method.getParameters()) {
+                parameters.add(parameter.getType().getFullyQualifiedName());
+            }
+            types.add(method.getName() + parameters);
+        }
+        return types;
+    }
+
+    @Test
+    public void parameterTypesMatchQdox() throws Exception {
+        File source = new File(folder.newFolder("meta"), "Sample.java");
+        FileUtils.writeStringToFile(source, SOURCE, StandardCharsets.UTF_8);
+        File output = folder.newFolder("classes");
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+        JavacTask task = (JavacTask) compiler.getTask(null, fileManager, null,
+                Arrays.asList("-d", output.getPath()), null, fileManager.getJavaFileObjects(source));
+        SourceMetaCollector collector = new SourceMetaCollector(task);
+        task.addTaskListener(collector);
+        assertTrue(task.call());
+        fileManager.close();
+
+        SourceMeta meta = collector.get("meta.Sample");
+        assertNotNull(meta);
+        List<String> types = Lists.newArrayList();
+        for (SourceMeta.Member method : meta.getMethods()) {
+            types.add(method.getName() + method.getParameterTypes());
+        }
+        assertEquals(qdoxTypes(source), types);
+        assertEquals("查找", meta.getMethods().get(0).getComment());
+        assertNotNull(collector.get("meta.Sample$Inner"));
+    }
+}
@@ -0,0 +1,80 @@
+package ameba.dev.profiling;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author icode
+ */
+public class ProfilerTest {
+
+    @Test
+    public void nestedCallsAreGroupedByEndpoint() {
+        Profiler.reset();
+        int endpoint = Profiler.register("a.A.get()V", "GET /a a.A.get");
+        int inner = Profiler.register("a.B.load()V", (String) null);
+        Profiler.enter(endpoint);
+        Profiler.enter(inner);
+        Profiler.exit(inner);
+        Profiler.exit(endpoint);
+
+        EndpointProfile profile = Profiler.snapshot().stream()
+                .filter(p -> p.getEndpoint().equals("GET /a a.A.get"))
+                .findFirst().orElseThrow(AssertionError::new);
+        assertEquals(2, profile.getMethods().size());
+        for (MethodProfile method : profile.getMethods()) {
+            assertEquals(1, method.getCount());
+            assertTrue(method.getSelfNanos() <= method.getTotalNanos());
+        }
+    }
+
+    @Test
+    public void snapshotWhileRegistering() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = Lists.newArrayList();
+        try {
+            for (int t = 0; t < 2; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 2000; i++) {
+                        int id = Profiler.register("c.T" + thread + ".m" + i + "()V",
+                                i % 10 == 0 ? "GET /t" + i : null);
+                        Profiler.enter(id);
+                        Profiler.exit(id);
+                    }
+                    return null;
+                }));
+            }
+            for (int t = 0; t < 2; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 500; i++) {
+                        for (EndpointProfile profile : Profiler.snapshot()) {
+                            assertTrue(profile.getEndpoint() != null);
+                        }
+                        if (i % 100 == 0) Profiler.reset();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}